@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.couchbase.docs.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReaderHeaderAware;
+import com.opencsv.CSVReaderHeaderAwareBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Measures the CPU cost of the parsing and preprocessing steps of
+ * {@code Import}, without a cluster. Every benchmark processes a whole
+ * generated dataset, so the scores are datasets per second.
+ * <p>
+ * JMH needs benchmarks in a named package, which cannot import the examples
+ * in the default package, so the steps are called through method handles on
+ * the static entry points of {@code Import}. Held in static final fields, the
+ * handles are inlined like direct calls.
+ * <p>
+ * Build and run with the {@code jmh} profile; arguments are passed on to JMH:
+ *
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar -p rows=100000 -p width=16
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImportBenchmark {
+
+  private static final MethodHandle PREPROCESS;
+  private static final MethodHandle PREPROCESS_RAW;
+  private static final MethodHandle JSON_ARRAY_ROWS;
+
+  static {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      Class<?> importClass = Class.forName("Import");
+      PREPROCESS = lookup.findStatic(importClass, "preprocess",
+          MethodType.methodType(Class.forName("Import$JsonDocument"), Map.class))
+        .asType(MethodType.methodType(Object.class, Map.class));
+      PREPROCESS_RAW = lookup.findStatic(importClass, "preprocessRaw",
+          MethodType.methodType(Class.forName("Import$RawJsonDocument"), byte[].class))
+        .asType(MethodType.methodType(Object.class, byte[].class));
+      JSON_ARRAY_ROWS = lookup.findStatic(importClass, "jsonArrayRows",
+          MethodType.methodType(Flux.class, Path.class));
+    }
+    catch (ReflectiveOperationException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  @Param({"10000"})
+  int rows;
+
+  // number of fields per row, including type and id
+  @Param({"8", "32"})
+  int width;
+
+  private String csv;
+  private String tsv;
+  private String json;
+  private Path jsonFile;
+  private List<String> jsonl;
+  private List<byte[]> jsonlBytes;
+  private List<Map<String, Object>> parsedRows;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    Random random = new Random(42);
+    StringBuilder csvOut = new StringBuilder();
+    StringBuilder tsvOut = new StringBuilder();
+    JsonArray array = JsonArray.create();
+    jsonl = new ArrayList<>(rows);
+    jsonlBytes = new ArrayList<>(rows);
+    parsedRows = new ArrayList<>(rows);
+
+    List<String> header = new ArrayList<>();
+    header.add("type");
+    header.add("id");
+    for (int i = 2; i < width; i++) {
+      header.add("field_" + i);
+    }
+    csvOut.append(String.join(",", header)).append('\n');
+    tsvOut.append(String.join("\t", header)).append('\n');
+
+    for (int row = 0; row < rows; row++) {
+      JsonObject object = JsonObject.create().put("type", "airline").put("id", row);
+      List<String> values = new ArrayList<>();
+      values.add("airline");
+      values.add(String.valueOf(row));
+
+      for (int i = 2; i < width; i++) {
+        if (i % 2 == 0) {
+          String text = "value " + random.nextInt(1_000_000);
+          object.put(header.get(i), text);
+          values.add(text);
+        }
+        else {
+          int number = random.nextInt(1_000_000);
+          object.put(header.get(i), number);
+          values.add(String.valueOf(number));
+        }
+      }
+
+      csvOut.append(String.join(",", values)).append('\n');
+      tsvOut.append(String.join("\t", values)).append('\n');
+      array.add(object);
+
+      String line = object.toString();
+      jsonl.add(line);
+      jsonlBytes.add(line.getBytes(StandardCharsets.UTF_8));
+      parsedRows.add(object.toMap());
+    }
+
+    csv = csvOut.toString();
+    tsv = tsvOut.toString();
+    json = array.toString();
+    jsonFile = Files.createTempFile("import-benchmark", ".json");
+    Files.write(jsonFile, json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanup() throws IOException {
+    Files.deleteIfExists(jsonFile);
+  }
+
+  @Benchmark
+  public void csvReadMap(Blackhole blackhole) throws Exception {
+    try (CSVReaderHeaderAware reader = new CSVReaderHeaderAware(new StringReader(csv))) {
+      Map<String, String> row;
+      while ((row = reader.readMap()) != null) {
+        blackhole.consume(row);
+      }
+    }
+  }
+
+  @Benchmark
+  public void csvReadMapAndPreprocess(Blackhole blackhole) throws Throwable {
+    try (CSVReaderHeaderAware reader = new CSVReaderHeaderAware(new StringReader(csv))) {
+      Map<String, String> row;
+      while ((row = reader.readMap()) != null) {
+        blackhole.consume((Object) PREPROCESS.invokeExact((Map) row));
+      }
+    }
+  }
+
+  @Benchmark
+  public void tsvReadMap(Blackhole blackhole) throws Exception {
+    try (CSVReaderHeaderAware reader =
+        new CSVReaderHeaderAwareBuilder(new StringReader(tsv))
+          .withCSVParser(new CSVParserBuilder().withSeparator('\t').withIgnoreQuotations(true).build())
+          .build()) {
+      Map<String, String> row;
+      while ((row = reader.readMap()) != null) {
+        blackhole.consume(row);
+      }
+    }
+  }
+
+  @Benchmark
+  public void jsonArrayFromJson(Blackhole blackhole) {
+    for (Object row : JsonArray.fromJson(json)) {
+      blackhole.consume(((JsonObject) row).toMap());
+    }
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public void jsonArrayStreaming(Blackhole blackhole) throws Throwable {
+    Flux<Map<String, Object>> rows = (Flux<Map<String, Object>>) (Flux) JSON_ARRAY_ROWS.invokeExact(jsonFile);
+    for (Map<String, Object> row : rows.toIterable()) {
+      blackhole.consume(row);
+    }
+  }
+
+  @Benchmark
+  public void jsonlFromJson(Blackhole blackhole) {
+    for (String line : jsonl) {
+      blackhole.consume(JsonObject.fromJson(line).toMap());
+    }
+  }
+
+  @Benchmark
+  public void jsonlFromJsonAndPreprocess(Blackhole blackhole) throws Throwable {
+    for (String line : jsonl) {
+      blackhole.consume((Object) PREPROCESS.invokeExact((Map) JsonObject.fromJson(line).toMap()));
+    }
+  }
+
+  @Benchmark
+  public void jsonlPreprocessRaw(Blackhole blackhole) throws Throwable {
+    for (byte[] line : jsonlBytes) {
+      blackhole.consume((Object) PREPROCESS_RAW.invokeExact(line));
+    }
+  }
+
+  @Benchmark
+  public void preprocess(Blackhole blackhole) throws Throwable {
+    for (Map<String, Object> row : parsedRows) {
+      blackhole.consume((Object) PREPROCESS.invokeExact((Map) row));
+    }
+  }
+
+  // the main class of target/benchmarks.jar: runs these benchmarks with the
+  // GC profiler, plus any options given on the command line
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    new Runner(new OptionsBuilder()
+      .parent(new CommandLineOptions(args))
+      .include(ImportBenchmark.class.getName())
+      .addProfiler(GCProfiler.class)
+      .build())
+      .run();
+  }
+}
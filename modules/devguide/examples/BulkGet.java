@@ -50,9 +50,10 @@ public class BulkGet extends ConnectionBase {
         // Describe what we want to do asynchronously using RxJava Observables:
 
         ReactiveCollection reactiveCollection = collection.reactive();
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create();
         Flux<Object> resultFlux = Flux.range(0, 10)
                 .map(index -> { return key + "_" + index; })
-                .flatMap(k -> reactiveCollection.get(k));
+                .flatMap(k -> limiter.execute(() -> reactiveCollection.get(k)), limiter.maxLimit());
 
         resultFlux.subscribe(System.out::println);
 
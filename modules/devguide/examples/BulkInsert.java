@@ -35,9 +35,10 @@ public class BulkInsert extends ConnectionBase {
         // Describe what we want to do asynchronously using RxJava Observables:
 
         ReactiveCollection reactiveCollection = collection.reactive();
+        AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create();
         Flux<MutationResult> resultFlux = Flux.range(0, 10)
                 .map(index -> { return key + "_" + index; })
-                .flatMap(k -> reactiveCollection.upsert(k, content));
+                .flatMap(k -> limiter.execute(() -> reactiveCollection.upsert(k, content)), limiter.maxLimit());
 
         resultFlux.subscribe(System.out::println);
 
@@ -15,6 +15,7 @@
  */
 
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 
 import com.couchbase.client.java.json.JsonArray;
 import com.couchbase.client.java.kv.GetResult;
@@ -92,6 +93,8 @@ public class CasCheckAndSet extends ConnectionBase {
 
     public void parallel(final boolean useCas) {
         final CountDownLatch latch = new CountDownLatch(PARALLEL);
+        // a virtual thread per task where the JDK supports it
+        ExecutorService executor = VirtualThreads.newExecutor();
         for (int i = 0; i < PARALLEL; i++) {
             final int idx = i;
             Runnable r = new Runnable() {
@@ -103,13 +106,14 @@ public class CasCheckAndSet extends ConnectionBase {
                     }
                 }
             };
-            new Thread(r).start();
+            executor.execute(r);
         }
         try {
             latch.await();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        executor.shutdown();
     }
 
     public static void main(String[] args) {
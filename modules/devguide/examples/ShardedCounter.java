@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.IncrementOptions;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A counter spread over several documents, {@code key::shard-0} to
+ * {@code key::shard-(n-1)}, so concurrent increments go to different
+ * documents and, through their different keys, mostly to different
+ * vBuckets and nodes instead of queueing up behind one hot document.
+ * <p>
+ * Each increment goes to one shard, picked either round-robin or at
+ * random. Picking by thread would not spread the load: reactive callers
+ * run on a handful of event-loop threads, which would keep hitting the
+ * same few shards. Reading the value fetches all shards in parallel and
+ * adds them up; a shard which has not been written yet counts as zero.
+ * {@link #cachedValue()} returns a value at most {@code maxStaleness} old,
+ * so frequent readers do not fetch every shard each time.
+ * <p>
+ * Shards are binary counters, which cannot go below zero, so there is no
+ * decrement: a decrement on an empty shard would be lost.
+ */
+public class ShardedCounter {
+
+    public enum ShardSelection {
+        ROUND_ROBIN, RANDOM
+    }
+
+    private final Collection collection;
+    private final ReactiveCollection reactive;
+    private final String[] shardKeys;
+    private final ShardSelection selection;
+    private final long maxStalenessNanos;
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    private volatile Snapshot cached;
+
+    public ShardedCounter(Collection collection, String key, int shards, ShardSelection selection,
+            Duration maxStaleness) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        this.collection = collection;
+        this.reactive = collection.reactive();
+        this.selection = selection;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.shardKeys = new String[shards];
+        for (int i = 0; i < shards; i++) {
+            shardKeys[i] = key + "::shard-" + i;
+        }
+    }
+
+    public ShardedCounter(Collection collection, String key, int shards) {
+        this(collection, key, shards, ShardSelection.RANDOM, Duration.ofSeconds(1));
+    }
+
+    public int shards() {
+        return shardKeys.length;
+    }
+
+    /**
+     * Adds {@code delta} to one of the shards, creating it if needed.
+     */
+    public void increment(long delta) {
+        if (delta < 0) {
+            throw new IllegalArgumentException("delta must not be negative");
+        }
+        // a missing shard is created with the initial value, without applying the delta
+        collection.binary().increment(shardKeys[nextShard()],
+                IncrementOptions.incrementOptions().delta(delta).initial(delta));
+    }
+
+    /**
+     * Reads all shards in parallel and returns their sum.
+     */
+    public long value() {
+        long value = readShards().block();
+        cached = new Snapshot(value, System.nanoTime());
+        return value;
+    }
+
+    /**
+     * Returns the last value read if it is at most {@code maxStaleness} old,
+     * otherwise reads it again. Only one caller reads at a time, the others
+     * wait for its result.
+     */
+    public long cachedValue() {
+        Snapshot snapshot = cached;
+        if (snapshot != null && snapshot.isFresh(maxStalenessNanos)) {
+            return snapshot.value;
+        }
+        synchronized (this) {
+            snapshot = cached;
+            if (snapshot != null && snapshot.isFresh(maxStalenessNanos)) {
+                return snapshot.value;
+            }
+            return value();
+        }
+    }
+
+    /**
+     * Removes all shards, which sets the counter back to zero.
+     */
+    public void reset() {
+        Flux.fromArray(shardKeys)
+                .flatMap(key -> reactive.remove(key)
+                        .onErrorResume(DocumentNotFoundException.class, e -> Mono.empty()))
+                .blockLast();
+        cached = null;
+    }
+
+    private Mono<Long> readShards() {
+        return Flux.fromArray(shardKeys)
+                .flatMap(key -> reactive.get(key)
+                        .map(result -> result.contentAs(Long.class))
+                        .onErrorResume(DocumentNotFoundException.class, e -> Mono.just(0L)),
+                        shardKeys.length)
+                .reduce(0L, Long::sum);
+    }
+
+    private int nextShard() {
+        if (shardKeys.length == 1) {
+            return 0;
+        }
+        if (selection == ShardSelection.ROUND_ROBIN) {
+            return Math.floorMod(nextShard.getAndIncrement(), shardKeys.length);
+        }
+        return ThreadLocalRandom.current().nextInt(shardKeys.length);
+    }
+
+    private static final class Snapshot {
+        final long value;
+        final long readNanos;
+
+        Snapshot(long value, long readNanos) {
+            this.value = value;
+            this.readNanos = readNanos;
+        }
+
+        boolean isFresh(long maxStalenessNanos) {
+            return System.nanoTime() - readNanos <= maxStalenessNanos;
+        }
+    }
+}
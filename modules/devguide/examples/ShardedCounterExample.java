@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Example of sharded counters in Java for the Couchbase Developer Guide.
+ */
+public class ShardedCounterExample extends ConnectionBase {
+
+    private static final int WRITERS = 16;
+    private static final int INCREMENTS_PER_WRITER = 5_000;
+    private static final String KEY = "javaDevguideExampleShardedCounter";
+
+    @Override
+    protected void doWork() {
+        // one shard is the same as a plain counter, for comparison
+        for (int shards : new int[] {1, 16}) {
+            ShardedCounter counter = new ShardedCounter(collection, KEY, shards,
+                    ShardedCounter.ShardSelection.RANDOM, Duration.ofMillis(500));
+            counter.reset();
+
+            long start = System.nanoTime();
+            ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+            for (int w = 0; w < WRITERS; w++) {
+                writers.execute(() -> {
+                    for (int i = 0; i < INCREMENTS_PER_WRITER; i++) {
+                        counter.increment(1);
+                    }
+                });
+            }
+            writers.shutdown();
+            try {
+                writers.awaitTermination(5, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+            LOGGER.info(String.format("%d shards: %.0f increments/s", shards,
+                    WRITERS * INCREMENTS_PER_WRITER / seconds));
+            LOGGER.info("Sharded counter is " + counter.value() + ", expected " + (WRITERS * INCREMENTS_PER_WRITER));
+            // served from the value just read
+            LOGGER.info("Cached value is " + counter.cachedValue());
+
+            counter.reset();
+        }
+    }
+
+    public static void main(String[] args) {
+        new ShardedCounterExample().execute();
+    }
+}
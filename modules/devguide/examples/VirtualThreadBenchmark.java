@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Compares three ways of running many blocking-style KV reads concurrently
+ * for the Couchbase Developer Guide: blocking gets on virtual threads,
+ * blocking gets on a pool of platform threads, and the reactive API with
+ * {@code flatMap}. Every mode does the same number of gets with the same
+ * number in flight.
+ * <p>
+ * Set {@code -Dbenchmark.operations} and {@code -Dbenchmark.concurrency} to
+ * change the workload.
+ */
+public class VirtualThreadBenchmark extends ConnectionBase {
+
+    private static final int DOCUMENTS = 1_000;
+    private static final int OPERATIONS = Integer.getInteger("benchmark.operations", 20_000);
+    private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 256);
+    private static final String KEY_PREFIX = "javaDevguideExampleVirtualThreads_";
+
+    @Override
+    protected void doWork() {
+        ReactiveCollection reactive = collection.reactive();
+        Flux.range(0, DOCUMENTS)
+                .flatMap(i -> reactive.upsert(KEY_PREFIX + i, JsonObject.create().put("n", i)), CONCURRENCY)
+                .blockLast();
+
+        // once untimed, so the connections and the JIT are warm for every mode
+        runPlatformThreads();
+
+        if (VirtualThreads.available()) {
+            report("virtual threads", this::runVirtualThreads);
+        } else {
+            LOGGER.info("Virtual threads need JDK 21 or later, skipping them");
+        }
+        report("platform threads", this::runPlatformThreads);
+        report("reactive", this::runReactive);
+    }
+
+    // one virtual thread per get, with a semaphore holding the concurrency
+    private Histogram runVirtualThreads() {
+        Recorder latencies = new Recorder(3);
+        Semaphore inFlight = new Semaphore(CONCURRENCY);
+        ExecutorService executor = VirtualThreads.newExecutor();
+        for (int i = 0; i < OPERATIONS; i++) {
+            inFlight.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    timedGet(latencies);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        await(executor);
+        return latencies.getIntervalHistogram();
+    }
+
+    // a fixed pool with one platform thread per get in flight
+    private Histogram runPlatformThreads() {
+        Recorder latencies = new Recorder(3);
+        ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        for (int i = 0; i < OPERATIONS; i++) {
+            executor.execute(() -> timedGet(latencies));
+        }
+        await(executor);
+        return latencies.getIntervalHistogram();
+    }
+
+    private Histogram runReactive() {
+        Recorder latencies = new Recorder(3);
+        ReactiveCollection reactive = collection.reactive();
+        Flux.range(0, OPERATIONS)
+                .flatMap(i -> Mono.defer(() -> {
+                    long start = System.nanoTime();
+                    return reactive.get(randomKey())
+                            .doOnSuccess(result -> latencies.recordValue(System.nanoTime() - start));
+                }), CONCURRENCY)
+                .blockLast();
+        return latencies.getIntervalHistogram();
+    }
+
+    private void timedGet(Recorder latencies) {
+        long start = System.nanoTime();
+        collection.get(randomKey());
+        latencies.recordValue(System.nanoTime() - start);
+    }
+
+    private static String randomKey() {
+        return KEY_PREFIX + ThreadLocalRandom.current().nextInt(DOCUMENTS);
+    }
+
+    private static void await(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void report(String mode, Supplier<Histogram> run) {
+        long start = System.nanoTime();
+        Histogram latencies = run.get();
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        LOGGER.info(String.format("%-16s %8.0f ops/s, p50=%.0fus p99=%.0fus p99.9=%.0fus",
+                mode, OPERATIONS / seconds,
+                latencies.getValueAtPercentile(50) / 1000.0,
+                latencies.getValueAtPercentile(99) / 1000.0,
+                latencies.getValueAtPercentile(99.9) / 1000.0));
+    }
+
+    public static void main(String[] args) {
+        new VirtualThreadBenchmark().execute();
+    }
+}
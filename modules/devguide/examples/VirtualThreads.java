@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs blocking code on virtual threads when the JDK has them (21 and
+ * later), and on platform threads otherwise.
+ * <p>
+ * These examples compile for Java 11, so the JDK 21 factory method is looked
+ * up at runtime. A virtual thread parks instead of holding an OS thread
+ * while it waits for the server, so thousands of blocking KV calls can be
+ * in flight at once, the same as with the reactive API.
+ */
+public final class VirtualThreads {
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findFactory();
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Whether {@link #newExecutor()} returns virtual threads, which needs
+     * JDK 21, or JDK 19 or 20 with preview features enabled.
+     */
+    public static boolean available() {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * An executor which starts a new virtual thread for each task, or a
+     * cached pool of platform threads where virtual threads are missing.
+     */
+    public static ExecutorService newExecutor() {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Could not create a virtual thread executor", e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private static Method findFactory() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            // JDK 19 and 20 have the method, but it throws unless the JVM was
+            // started with --enable-preview, so try it once
+            ((ExecutorService) factory.invoke(null)).shutdown();
+            return factory;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.couchbase.client.java.json.JsonObject;
+
+/**
+ * Example of buffering writes to hot documents in Java for the Couchbase
+ * Developer Guide.
+ */
+public class WriteBehind extends ConnectionBase {
+
+    private static final int WRITERS = 8;
+    private static final int UPDATES_PER_WRITER = 10_000;
+    private static final String COUNTER_KEY = "javaDevguideExampleWriteBehindCounter";
+    private static final String SESSION_KEY = "javaDevguideExampleWriteBehindSession";
+
+    @Override
+    protected void doWork() {
+        collection.upsert(COUNTER_KEY, JsonObject.create().put("hits", 0));
+
+        WriteBehindBuffer buffer = new WriteBehindBuffer(collection, Duration.ofMillis(100), 10_000, 64,
+                (id, error) -> LOGGER.error("Write to " + id + " failed", error));
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITERS);
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            writers.execute(() -> {
+                for (int i = 0; i < UPDATES_PER_WRITER; i++) {
+                    buffer.increment(COUNTER_KEY, "hits", 1);
+                    buffer.upsert(SESSION_KEY, "lastWriter", writer);
+                }
+            });
+        }
+        writers.shutdown();
+        try {
+            writers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // everything written so far is stored once close returns
+        buffer.close();
+
+        long hits = collection.get(COUNTER_KEY).contentAsObject().getLong("hits");
+        LOGGER.info("Counter is " + hits + ", expected " + (WRITERS * UPDATES_PER_WRITER));
+        LOGGER.info("Sent " + buffer.sent() + " mutations for " + buffer.requested() + " writes");
+    }
+
+    public static void main(String[] args) {
+        new WriteBehind().execute();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.MutateInOptions;
+import com.couchbase.client.java.kv.MutateInSpec;
+import com.couchbase.client.java.kv.StoreSemantics;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Buffers writes per document for a short window and sends only the merged
+ * result, so a document updated thousands of times per second is written a
+ * few times per second instead.
+ * <p>
+ * Within a window a full document upsert replaces everything buffered
+ * before it for that key, a path upsert replaces the earlier value for the
+ * same path (and increments below it), and counter increments on the same
+ * path are summed. Increments are applied after the path upserts of the
+ * same window. Each document is written by one upsert and as few mutateIn
+ * calls as its distinct paths need, with up to {@code concurrency}
+ * documents written at a time.
+ * <p>
+ * Writes are acknowledged before they reach the server, so they are lost if
+ * the process dies before the next flush. Failed writes are passed to the
+ * error handler. The buffer holds at most about {@code maxPendingWrites}
+ * merged writes, counting a whole document or one path as one; once it is
+ * full, writes which would add to it block until a flush makes room, while
+ * writes which merge into a buffered one do not. Call {@link #flush()} to
+ * wait until everything written so far is stored, and {@link #close()} when
+ * done.
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+
+    // the server accepts at most 16 specs per mutateIn
+    static final int MAX_SPECS = 16;
+
+    private final ReactiveCollection collection;
+    private final int concurrency;
+    private final BiConsumer<String, Throwable> onError;
+    private final Semaphore room;
+    private final ScheduledExecutorService flusher;
+    private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public WriteBehindBuffer(Collection collection, Duration window, int maxPendingWrites, int concurrency,
+            BiConsumer<String, Throwable> onError) {
+        this.collection = collection.reactive();
+        this.concurrency = concurrency;
+        this.onError = onError;
+        this.room = new Semaphore(maxPendingWrites);
+
+        // a single thread, so flushes never overlap and the writes to a key stay in order
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushPending, window.toMillis(), window.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the whole document, dropping anything buffered for it so far.
+     */
+    public void upsert(String id, Object content) {
+        merge(id, pending -> {
+            pending.content = content;
+            pending.paths.clear();
+            pending.increments.clear();
+        });
+    }
+
+    /**
+     * Sets one path of the document, creating it (and its parents) if missing.
+     */
+    public void upsert(String id, String path, Object value) {
+        merge(id, pending -> {
+            // moved to the end, so it still overrides any parent path written before it
+            pending.paths.remove(path);
+            pending.paths.put(path, value);
+            pending.increments.keySet().removeIf(incremented -> incremented.equals(path)
+                    || incremented.startsWith(path + ".") || incremented.startsWith(path + "["));
+        });
+    }
+
+    /**
+     * Adds to a numeric field, creating it (and its parents) if missing.
+     */
+    public void increment(String id, String path, long delta) {
+        merge(id, pending -> pending.increments.merge(path, delta, Long::sum));
+    }
+
+    /**
+     * Writes everything buffered so far and waits until it is stored.
+     */
+    public void flush() {
+        try {
+            flusher.submit(this::flushPending).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Flush failed", e.getCause());
+        }
+    }
+
+    /**
+     * Flushes, then stops the background flushes. Writes after this fail.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+        flusher.shutdown();
+    }
+
+    /**
+     * The number of writes handed to this buffer.
+     */
+    public long requested() {
+        return requested.sum();
+    }
+
+    /**
+     * The number of mutations actually sent to the server.
+     */
+    public long sent() {
+        return sent.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "WriteBehindBuffer{requested=" + requested() + ", sent=" + sent() + ", failed=" + failed()
+                + ", pendingKeys=" + pending.size() + "}";
+    }
+
+    private void merge(String id, Consumer<Pending> change) {
+        if (closed) {
+            throw new IllegalStateException("WriteBehindBuffer is closed");
+        }
+        requested.increment();
+
+        int[] added = new int[1];
+        pending.compute(id, (key, current) -> {
+            if (current == null) {
+                current = new Pending();
+            }
+            int before = current.size();
+            change.accept(current);
+            added[0] = current.size() - before;
+            return current;
+        });
+
+        // each buffered write holds a permit until it is sent; waiting outside
+        // compute keeps the map usable, at the cost of one extra write per writer
+        if (added[0] > 0) {
+            room.acquireUninterruptibly(added[0]);
+        } else if (added[0] < 0) {
+            room.release(-added[0]);
+        }
+    }
+
+    // runs on the flusher thread only
+    private void flushPending() {
+        List<Map.Entry<String, Pending>> batch = new ArrayList<>();
+        for (String id : pending.keySet()) {
+            Pending taken = pending.remove(id);
+            if (taken != null) {
+                batch.add(Map.entry(id, taken));
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Flux.fromIterable(batch)
+                .flatMap(entry -> write(entry.getKey(), entry.getValue())
+                        .doFinally(signal -> room.release(entry.getValue().size())), concurrency)
+                .blockLast();
+    }
+
+    private Mono<Void> write(String id, Pending pending) {
+        Mono<?> writes = Mono.empty();
+        if (pending.content != null) {
+            sent.increment();
+            writes = collection.upsert(id, pending.content);
+        }
+
+        List<MutateInSpec> specs = new ArrayList<>(pending.paths.size() + pending.increments.size());
+        pending.paths.forEach((path, value) -> specs.add(MutateInSpec.upsert(path, value).createPath()));
+        pending.increments.forEach((path, delta) -> specs.add(MutateInSpec.increment(path, delta).createPath()));
+        // a document with more distinct paths than one mutateIn takes is written in
+        // order, one chunk after the other, since a later path may be below an earlier one
+        for (int from = 0; from < specs.size(); from += MAX_SPECS) {
+            List<MutateInSpec> chunk = specs.subList(from, Math.min(specs.size(), from + MAX_SPECS));
+            sent.increment();
+            writes = writes.then(collection.mutateIn(id, chunk,
+                    MutateInOptions.mutateInOptions().storeSemantics(StoreSemantics.UPSERT)));
+        }
+
+        return writes
+                .then()
+                .onErrorResume(e -> {
+                    failed.increment();
+                    onError.accept(id, e);
+                    return Mono.empty();
+                });
+    }
+
+    // only touched inside compute while buffered, and by the flusher once removed
+    private static final class Pending {
+        private Object content;
+        private final Map<String, Object> paths = new LinkedHashMap<>();
+        private final Map<String, Long> increments = new LinkedHashMap<>();
+
+        // the number of writes left after merging, each holding one permit
+        int size() {
+            return (content == null ? 0 : 1) + paths.size() + increments.size();
+        }
+    }
+}
@@ -91,6 +91,31 @@ public class KvBulkHelloWorld {
       // end::kv-bulk-upsert[]
     }
 
+    {
+      System.out.println("\nExample: [kv-bulk-upsert-adaptive]");
+      // tag::kv-bulk-upsert-adaptive[]
+      // Let the limiter find how many operations the cluster can take at once,
+      // instead of always keeping Reactor's default of 256 in flight.
+      AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create();
+
+      List<MutationResult> results = Flux.fromIterable(documents)
+          .flatMap(document -> limiter.execute(() -> reactiveCollection.upsert(
+                document.getId(), document.getContent()
+              )
+            ),
+            limiter.maxLimit()
+          )
+          .collectList()
+          .block(); // Wait until all operations have completed.
+
+      // Print all the results, and what the limiter learned.
+      for (MutationResult result : results) {
+        System.out.println("CAS: " + result.cas());
+      }
+      System.out.println(limiter);
+      // end::kv-bulk-upsert-adaptive[]
+    }
+
     {
       System.out.println("\nExample: [kv-bulk-get]");
       // tag::kv-bulk-get[]
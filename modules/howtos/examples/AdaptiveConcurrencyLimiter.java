@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.couchbase.client.core.error.RateLimitedException;
+import com.couchbase.client.core.error.TemporaryFailureException;
+import com.couchbase.client.core.error.TimeoutException;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.retry.Retry;
+
+/**
+ * Limits the number of reactive operations in flight with an AIMD
+ * (additive increase, multiplicative decrease) policy.
+ * <p>
+ * The limit grows by one for every window of {@code limit} operations whose
+ * average latency stays close to the lowest latency seen so far, and is cut
+ * back as soon as an operation times out or the server reports a temporary
+ * failure. Use it inside a {@code flatMap} whose own concurrency is set to
+ * {@link #maxLimit()}:
+ *
+ * <pre>
+ * Flux.fromIterable(docs)
+ *   .flatMap(doc -> limiter.execute(() -> reactiveCollection.upsert(doc.getId(), doc.getContent())),
+ *     limiter.maxLimit())
+ * </pre>
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double backoffRatio;
+  private final double latencyTolerance;
+
+  private volatile int limit;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+  private final Recorder latencies = new Recorder(3);
+  private final Histogram latencyTotals = new Histogram(3);
+
+  // the current sampling window, guarded by this
+  private long windowSamples;
+  private long windowNanos;
+  private boolean decreasedInWindow;
+  private double baselineNanos;
+
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+    this(initialLimit, minLimit, maxLimit, 0.75, 1.5);
+  }
+
+  /**
+   * @param backoffRatio the factor the limit is multiplied with on overload.
+   * @param latencyTolerance how far above the baseline the average latency of a
+   *   window may go before the limit stops growing.
+   */
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                    double backoffRatio, double latencyTolerance) {
+    if (minLimit < 1 || maxLimit < minLimit) {
+      throw new IllegalArgumentException("expected 1 <= minLimit <= maxLimit");
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.backoffRatio = backoffRatio;
+    this.latencyTolerance = latencyTolerance;
+    this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+  }
+
+  /**
+   * Starts at 16 concurrent operations and may grow up to 1024.
+   */
+  public static AdaptiveConcurrencyLimiter create() {
+    return new AdaptiveConcurrencyLimiter(16, 1, 1024);
+  }
+
+  /**
+   * Subscribes to the given operation once a slot is free, and feeds its
+   * latency or failure back into the limit.
+   */
+  public <T> Mono<T> execute(Supplier<Mono<T>> operation) {
+    return Mono.defer(() -> {
+      Waiter waiter = new Waiter();
+      return acquire(waiter)
+        .then(Mono.defer(() -> {
+          long start = System.nanoTime();
+          return operation.get()
+            .doOnSuccess(value -> onSuccess(System.nanoTime() - start))
+            .doOnError(this::onError);
+        }))
+        // however this ends, a slot is given back only if one was taken
+        .doFinally(signal -> {
+          if (waiter.state.compareAndSet(Waiter.GRANTED, Waiter.RELEASED)) {
+            release();
+          }
+        });
+    });
+  }
+
+  /**
+   * Retries operations which failed with one of the errors the limiter backs
+   * off on, so they wait for a slot under the lowered limit instead of
+   * failing the whole stream. Use it around {@link #execute(Supplier)}.
+   */
+  public static Retry retryOnOverload(int maxRetries) {
+    return Retry.backoff(maxRetries, Duration.ofMillis(20))
+      .maxBackoff(Duration.ofSeconds(1))
+      .filter(AdaptiveConcurrencyLimiter::isOverload);
+  }
+
+  public int limit() {
+    return limit;
+  }
+
+  public int minLimit() {
+    return minLimit;
+  }
+
+  public int maxLimit() {
+    return maxLimit;
+  }
+
+  public int inFlight() {
+    return inFlight.get();
+  }
+
+  /**
+   * Returns the latency of successful operations at the given percentile,
+   * in microseconds.
+   */
+  public double latencyPercentileMicros(double percentile) {
+    return latencySnapshot().getValueAtPercentile(percentile) / 1000.0;
+  }
+
+  /**
+   * Returns a copy of all latencies recorded so far, in nanoseconds.
+   */
+  public synchronized Histogram latencySnapshot() {
+    latencyTotals.add(latencies.getIntervalHistogram());
+    return latencyTotals.copy();
+  }
+
+  @Override
+  public String toString() {
+    Histogram snapshot = latencySnapshot();
+    return String.format("AdaptiveConcurrencyLimiter{limit=%d, inFlight=%d, p50=%.0fus, p99=%.0fus, p99.9=%.0fus}",
+      limit, inFlight.get(),
+      snapshot.getValueAtPercentile(50) / 1000.0,
+      snapshot.getValueAtPercentile(99) / 1000.0,
+      snapshot.getValueAtPercentile(99.9) / 1000.0);
+  }
+
+  private Mono<Void> acquire(Waiter waiter) {
+    return Mono.create(sink -> {
+      waiter.sink = sink;
+      sink.onCancel(() -> {
+        // a waiter which was granted a slot gives it back in execute()
+        if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.CANCELLED)) {
+          waiters.remove(waiter);
+        }
+      });
+      if (waiters.isEmpty() && tryAcquire()) {
+        grant(waiter);
+        return;
+      }
+      waiters.offer(waiter);
+      drain();
+    });
+  }
+
+  private boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private void release() {
+    inFlight.decrementAndGet();
+    drain();
+  }
+
+  private void drain() {
+    while (!waiters.isEmpty() && tryAcquire()) {
+      Waiter next = waiters.poll();
+      if (next == null) {
+        inFlight.decrementAndGet();
+        return;
+      }
+      grant(next);
+    }
+  }
+
+  // hands a slot taken by tryAcquire() to the waiter, or takes it back if it was cancelled
+  private void grant(Waiter waiter) {
+    if (waiter.state.compareAndSet(Waiter.WAITING, Waiter.GRANTED)) {
+      waiter.sink.success();
+    }
+    else {
+      inFlight.decrementAndGet();
+    }
+  }
+
+  private void onSuccess(long latencyNanos) {
+    latencies.recordValue(Math.max(1, latencyNanos));
+
+    synchronized (this) {
+      windowSamples++;
+      windowNanos += latencyNanos;
+      if (windowSamples >= limit) {
+        double average = windowNanos / (double) windowSamples;
+        if (baselineNanos == 0) {
+          baselineNanos = average;
+        }
+        if (!decreasedInWindow && average <= baselineNanos * latencyTolerance) {
+          limit = Math.min(maxLimit, limit + 1);
+        }
+        // follow a lower baseline immediately, a higher one only slowly
+        baselineNanos = average < baselineNanos ? average : baselineNanos * 0.95 + average * 0.05;
+
+        windowSamples = 0;
+        windowNanos = 0;
+        decreasedInWindow = false;
+      }
+    }
+    drain();
+  }
+
+  private void onError(Throwable error) {
+    if (!isOverload(error)) {
+      return;
+    }
+    synchronized (this) {
+      // a burst of timeouts from the same window only backs off once
+      if (!decreasedInWindow) {
+        limit = Math.max(minLimit, (int) (limit * backoffRatio));
+        decreasedInWindow = true;
+      }
+    }
+  }
+
+  static boolean isOverload(Throwable error) {
+    return error instanceof TimeoutException
+      || error instanceof java.util.concurrent.TimeoutException
+      || error instanceof TemporaryFailureException
+      || error instanceof RateLimitedException;
+  }
+
+  // a subscriber waiting for a slot, which is either granted one or cancelled, never both
+  private static final class Waiter {
+    static final int WAITING = 0;
+    static final int GRANTED = 1;
+    static final int CANCELLED = 2;
+    static final int RELEASED = 3;
+
+    private volatile MonoSink<Void> sink;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+  }
+}
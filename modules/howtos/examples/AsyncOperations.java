@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.couchbase.client.core.error.TemporaryFailureException;
 import com.couchbase.client.java.AsyncBucket;
 import com.couchbase.client.java.AsyncCluster;
 import com.couchbase.client.java.AsyncCollection;
@@ -123,6 +124,26 @@ public class AsyncOperations {
       // end::retry-bulk[]
     }
 
+    {
+      // tag::bulk-facade[]
+      List<String> docsToFetch = Arrays.asList("airline_1316", "airline_13391", "airline_1355", "airline_0");
+
+      BulkCollection bulk = new BulkCollection(reactiveCollection, 64)
+          // only retry transient failures, a missing document will stay missing
+          .withRetry(Retry.backoff(3, Duration.ofMillis(10))
+              .filter(e -> e instanceof TemporaryFailureException));
+      BulkResult<GetResult> results = bulk.get(docsToFetch).block();
+
+      for (int i = 0; i < results.size(); i++) {
+        if (results.isSuccess(i)) {
+          System.out.println(results.id(i) + ": " + results.result(i).contentAsObject());
+        } else {
+          System.out.println(results.id(i) + " failed: " + results.error(i));
+        }
+      }
+      // end::bulk-facade[]
+    }
+
     // tag::rs-conversion[]
     Single<GetResult> rxSingleResult = monoToSingle(reactiveCollection.get("airline_10"));
     // end::rs-conversion[]
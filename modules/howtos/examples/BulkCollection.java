@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.MutationResult;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Runs key-value operations over many keys with at most a fixed number in
+ * flight, and reports the outcome for each key separately instead of
+ * failing the whole batch on the first error.
+ */
+public class BulkCollection {
+
+  private final ReactiveCollection collection;
+  private final int concurrency;
+  private final Retry retry;
+
+  public BulkCollection(ReactiveCollection collection, int concurrency) {
+    this(collection, concurrency, null);
+  }
+
+  private BulkCollection(ReactiveCollection collection, int concurrency, Retry retry) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    this.collection = collection;
+    this.concurrency = concurrency;
+    this.retry = retry;
+  }
+
+  /**
+   * Returns a copy which retries each failed operation with the given
+   * strategy before recording it as an error.
+   */
+  public BulkCollection withRetry(Retry retry) {
+    return new BulkCollection(collection, concurrency, retry);
+  }
+
+  public Mono<BulkResult<GetResult>> get(List<String> ids) {
+    return run(ids, collection::get);
+  }
+
+  public Mono<BulkResult<MutationResult>> insert(Map<String, ?> docs) {
+    return run(docs, (id, content) -> collection.insert(id, content));
+  }
+
+  public Mono<BulkResult<MutationResult>> upsert(Map<String, ?> docs) {
+    return run(docs, (id, content) -> collection.upsert(id, content));
+  }
+
+  public Mono<BulkResult<MutationResult>> replace(Map<String, ?> docs) {
+    return run(docs, (id, content) -> collection.replace(id, content));
+  }
+
+  public Mono<BulkResult<MutationResult>> remove(List<String> ids) {
+    return run(ids, collection::remove);
+  }
+
+  public Mono<BulkResult<MutationResult>> touch(List<String> ids, Duration expiry) {
+    return run(ids, id -> collection.touch(id, expiry));
+  }
+
+  private <T> Mono<BulkResult<T>> run(Map<String, ?> docs, DocumentOperation<T> operation) {
+    List<String> ids = new ArrayList<>(docs.keySet());
+    return run(ids, id -> operation.apply(id, docs.get(id)));
+  }
+
+  private <T> Mono<BulkResult<T>> run(List<String> ids, Function<String, Mono<T>> operation) {
+    return Mono.defer(() -> {
+      BulkResult<T> result = new BulkResult<>(ids);
+      return Flux.range(0, ids.size())
+        .flatMap(i -> {
+            Mono<T> single = operation.apply(ids.get(i));
+            if (retry != null) {
+              single = single.retryWhen(retry);
+            }
+            return single
+              .doOnNext(value -> result.succeeded(i, value))
+              .onErrorResume(error -> {
+                // record why the last attempt failed, not that the retries ran out
+                result.failed(i, Exceptions.isRetryExhausted(error) && error.getCause() != null
+                  ? error.getCause() : error);
+                return Mono.empty();
+              });
+          },
+          concurrency)
+        .then(Mono.just(result));
+    });
+  }
+
+  @FunctionalInterface
+  private interface DocumentOperation<T> {
+    Mono<T> apply(String id, Object content);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The outcome of a bulk operation for each of its keys, in the order the
+ * keys were given.
+ * <p>
+ * Each operation writes only its own slot of an array, so completing
+ * operations never contend with each other. A slot holds the result, a
+ * {@link Failure}, or null while the operation is still running.
+ */
+public class BulkResult<T> {
+
+  private final List<String> ids;
+  private final AtomicReferenceArray<Object> outcomes;
+
+  BulkResult(List<String> ids) {
+    this.ids = ids;
+    this.outcomes = new AtomicReferenceArray<>(ids.size());
+  }
+
+  void succeeded(int index, T result) {
+    outcomes.set(index, result);
+  }
+
+  void failed(int index, Throwable error) {
+    outcomes.set(index, new Failure(error));
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  public String id(int index) {
+    return ids.get(index);
+  }
+
+  public boolean isSuccess(int index) {
+    Object outcome = outcomes.get(index);
+    return outcome != null && !(outcome instanceof Failure);
+  }
+
+  /**
+   * @return the result for the key, or null if it failed.
+   */
+  @SuppressWarnings("unchecked")
+  public T result(int index) {
+    Object outcome = outcomes.get(index);
+    return outcome instanceof Failure ? null : (T) outcome;
+  }
+
+  /**
+   * @return the error for the key, or null if it succeeded.
+   */
+  public Throwable error(int index) {
+    Object outcome = outcomes.get(index);
+    return outcome instanceof Failure ? ((Failure) outcome).error : null;
+  }
+
+  public int successCount() {
+    int count = 0;
+    for (int i = 0; i < size(); i++) {
+      if (isSuccess(i)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  public int errorCount() {
+    int count = 0;
+    for (int i = 0; i < size(); i++) {
+      if (error(i) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Copies the successful results into a map, keyed by document id.
+   */
+  public Map<String, T> successes() {
+    Map<String, T> successes = new LinkedHashMap<>();
+    for (int i = 0; i < size(); i++) {
+      if (isSuccess(i)) {
+        successes.put(id(i), result(i));
+      }
+    }
+    return successes;
+  }
+
+  /**
+   * Copies the errors into a map, keyed by document id.
+   */
+  public Map<String, Throwable> errors() {
+    Map<String, Throwable> errors = new LinkedHashMap<>();
+    for (int i = 0; i < size(); i++) {
+      Throwable error = error(i);
+      if (error != null) {
+        errors.put(id(i), error);
+      }
+    }
+    return errors;
+  }
+
+  @Override
+  public String toString() {
+    return "BulkResult{size=" + size() + ", successes=" + successCount() + ", errors=" + errorCount() + "}";
+  }
+
+  // wraps errors so they can't be mistaken for results
+  private static final class Failure {
+    private final Throwable error;
+
+    Failure(Throwable error) {
+      this.error = error;
+    }
+  }
+}
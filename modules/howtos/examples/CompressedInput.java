@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.github.luben.zstd.ZstdInputStream;
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+/**
+ * Opens import files which may be compressed with gzip, zstd or lz4,
+ * detected from their magic bytes, without decompressing them to disk first.
+ * <p>
+ * Decompression runs on its own thread and reads ahead into a bounded queue,
+ * so the parser never waits for the decompressor unless it is faster than
+ * it. BGZF files (blocked gzip, as written by {@code bgzip}) record the size
+ * of each block, so their blocks are also decompressed in parallel.
+ */
+public final class CompressedInput {
+
+  public enum Format { NONE, GZIP, BGZF, ZSTD, LZ4 }
+
+  static final int BLOCK_SIZE = 256 * 1024;
+  static final int READ_AHEAD_BLOCKS = Math.max(16, 2 * Runtime.getRuntime().availableProcessors());
+
+  private CompressedInput() { }
+
+  public static Format detect(Path path) throws IOException {
+    byte[] magic = new byte[16];
+    int read;
+    try (InputStream in = Files.newInputStream(path)) {
+      read = in.readNBytes(magic, 0, magic.length);
+    }
+
+    if (read >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+      // FEXTRA with a "BC" subfield marks a BGZF file
+      boolean bgzf = read >= 14 && (magic[3] & 0x04) != 0 && magic[12] == 'B' && magic[13] == 'C';
+      return bgzf ? Format.BGZF : Format.GZIP;
+    }
+    if (read >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+        && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+      return Format.ZSTD;
+    }
+    if (read >= 4 && (magic[0] & 0xff) == 0x04 && (magic[1] & 0xff) == 0x22
+        && (magic[2] & 0xff) == 0x4d && (magic[3] & 0xff) == 0x18) {
+      return Format.LZ4;
+    }
+    return Format.NONE;
+  }
+
+  /**
+   * Opens the file, decompressing it if needed.
+   */
+  public static InputStream open(Path path) throws IOException {
+    Format format = detect(path);
+    InputStream file = new BufferedInputStream(Files.newInputStream(path), BLOCK_SIZE);
+
+    switch (format) {
+      case GZIP: return new ReadAheadInputStream(new GZIPInputStream(file, BLOCK_SIZE), path);
+      case BGZF: return new BgzfInputStream(file, path);
+      case ZSTD: return new ReadAheadInputStream(new ZstdInputStream(file), path);
+      case LZ4: return new ReadAheadInputStream(new LZ4FrameInputStream(file), path);
+      default: return file;
+    }
+  }
+
+  /**
+   * Opens the file as UTF-8 text, decompressing it if needed.
+   */
+  public static BufferedReader reader(Path path) throws IOException {
+    return new BufferedReader(new InputStreamReader(open(path), StandardCharsets.UTF_8), BLOCK_SIZE);
+  }
+
+  /**
+   * Hands out blocks produced by a background thread, in order.
+   */
+  private abstract static class BlockInputStream extends InputStream {
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<Object> blocks = new ArrayBlockingQueue<>(READ_AHEAD_BLOCKS);
+    private final Thread producer;
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean finished;
+
+    BlockInputStream(Path path) {
+      producer = new Thread(this::produceAll, "decompress-" + path.getFileName());
+      producer.setDaemon(true);
+    }
+
+    // called by subclasses once they are fully constructed
+    void start() {
+      producer.start();
+    }
+
+    /**
+     * Produces the next block, or null at the end of the input. Runs on the
+     * producer thread only.
+     */
+    abstract Object produce() throws Exception;
+
+    abstract void closeSource() throws IOException;
+
+    private void produceAll() {
+      try {
+        Object block;
+        while ((block = produce()) != null) {
+          blocks.put(block);
+        }
+        blocks.put(END);
+      }
+      catch (InterruptedException e) {
+        // closed by the reader
+      }
+      catch (Throwable e) {
+        try {
+          blocks.put(e);
+        }
+        catch (InterruptedException ignored) {
+          // closed by the reader
+        }
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill()) {
+        return -1;
+      }
+      int count = Math.min(length, current.length - position);
+      System.arraycopy(current, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      finished = true;
+      producer.interrupt();
+      closeSource();
+    }
+
+    private boolean fill() throws IOException {
+      while (position == current.length) {
+        if (finished) {
+          return false;
+        }
+        Object next;
+        try {
+          next = blocks.take();
+          if (next instanceof CompletableFuture) {
+            next = ((CompletableFuture<?>) next).get();
+          }
+        }
+        catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        catch (ExecutionException e) {
+          next = e.getCause();
+        }
+
+        if (next instanceof Throwable) {
+          finished = true;
+          throw new IOException("Decompression failed", (Throwable) next);
+        }
+        if (next == END) {
+          finished = true;
+          return false;
+        }
+        current = (byte[]) next;
+        position = 0;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Runs a sequential decompressor on a background thread.
+   */
+  private static final class ReadAheadInputStream extends BlockInputStream {
+    private final InputStream source;
+
+    ReadAheadInputStream(InputStream source, Path path) {
+      super(path);
+      this.source = source;
+      start();
+    }
+
+    @Override
+    Object produce() throws IOException {
+      byte[] block = source.readNBytes(BLOCK_SIZE);
+      return block.length == 0 ? null : block;
+    }
+
+    @Override
+    void closeSource() throws IOException {
+      source.close();
+    }
+  }
+
+  /**
+   * Reads BGZF blocks on a background thread and inflates them on the
+   * common pool, keeping their order.
+   */
+  private static final class BgzfInputStream extends BlockInputStream {
+    private final DataInputStream source;
+
+    BgzfInputStream(InputStream source, Path path) {
+      super(path);
+      this.source = new DataInputStream(source);
+      start();
+    }
+
+    @Override
+    Object produce() throws IOException {
+      byte[] header = new byte[12];
+      int read = source.readNBytes(header, 0, header.length);
+      if (read == 0) {
+        return null;
+      }
+      if (read < header.length || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b) {
+        throw new IOException("Not a BGZF block");
+      }
+
+      int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+      byte[] extra = new byte[extraLength];
+      source.readFully(extra);
+
+      int blockSize = -1;
+      for (int i = 0; i + 4 <= extraLength; ) {
+        int subfieldLength = (extra[i + 2] & 0xff) | (extra[i + 3] & 0xff) << 8;
+        if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2) {
+          blockSize = ((extra[i + 4] & 0xff) | (extra[i + 5] & 0xff) << 8) + 1;
+        }
+        i += 4 + subfieldLength;
+      }
+      if (blockSize < 0) {
+        throw new IOException("BGZF block without a BC subfield");
+      }
+
+      // the rest of the block: deflate data, then CRC32 and uncompressed size
+      byte[] rest = new byte[blockSize - header.length - extraLength];
+      source.readFully(rest);
+
+      return CompletableFuture.supplyAsync(() -> inflate(rest), ForkJoinPool.commonPool());
+    }
+
+    @Override
+    void closeSource() throws IOException {
+      source.close();
+    }
+
+    private static byte[] inflate(byte[] block) {
+      int trailer = block.length - 8;
+      long crc = readIntLE(block, trailer) & 0xffffffffL;
+      int size = readIntLE(block, trailer + 4);
+
+      byte[] out = new byte[size];
+      Inflater inflater = new Inflater(true);
+      try {
+        inflater.setInput(block, 0, trailer);
+        int total = 0;
+        while (total < size && !inflater.finished()) {
+          int n = inflater.inflate(out, total, size - total);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          total += n;
+        }
+        if (total != size) {
+          throw new IllegalStateException(new EOFException("Truncated BGZF block"));
+        }
+      }
+      catch (DataFormatException e) {
+        throw new IllegalStateException(e);
+      }
+      finally {
+        inflater.end();
+      }
+
+      CRC32 check = new CRC32();
+      check.update(out, 0, size);
+      if (check.getValue() != crc) {
+        throw new IllegalStateException("BGZF block checksum mismatch");
+      }
+      return out;
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+      return (bytes[offset] & 0xff)
+        | (bytes[offset + 1] & 0xff) << 8
+        | (bytes[offset + 2] & 0xff) << 16
+        | (bytes[offset + 3] & 0xff) << 24;
+    }
+  }
+}
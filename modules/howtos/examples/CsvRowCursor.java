@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+import com.couchbase.client.java.json.JsonObject;
+
+/**
+ * Reads CSV or TSV records one at a time into a single reusable buffer,
+ * addressed by column index, instead of allocating a {@code Map} per row.
+ * <p>
+ * Every column is a string, as it is when the rows are read into a
+ * {@code Map}: guessing types from the data would turn an id such as
+ * {@code 007} into {@code 7}, and a later row could contradict the guess.
+ * The only per-row allocations are the strings and the document itself.
+ */
+public class CsvRowCursor implements AutoCloseable {
+
+  private static final int EOF = -1;
+
+  private final Reader reader;
+  private final char separator;
+  private final boolean quotes;
+
+  private final char[] input = new char[64 * 1024];
+  private int inputPos;
+  private int inputLen;
+  private int pushback = EOF;
+
+  // the current record: field contents back to back, and where each starts and ends
+  private char[] row = new char[1024];
+  private int rowLen;
+  private int[] starts = new int[16];
+  private int[] ends = new int[16];
+  private int columns;
+  private long rowNumber;
+
+  private final String[] header;
+
+  private CsvRowCursor(Reader reader, char separator, boolean quotes) throws IOException {
+    this.reader = reader;
+    this.separator = separator;
+    this.quotes = quotes;
+
+    if (!next()) {
+      throw new IOException("Missing header row");
+    }
+    header = new String[columns];
+    for (int i = 0; i < columns; i++) {
+      header[i] = stringValue(i);
+    }
+    rowNumber = 0;
+  }
+
+  /**
+   * Comma separated values with RFC 4180 quoting.
+   */
+  public static CsvRowCursor csv(Reader reader) throws IOException {
+    return new CsvRowCursor(reader, ',', true);
+  }
+
+  /**
+   * Tab separated values without quoting.
+   */
+  public static CsvRowCursor tsv(Reader reader) throws IOException {
+    return new CsvRowCursor(reader, '\t', false);
+  }
+
+  public int columnCount() {
+    return header.length;
+  }
+
+  public String header(int column) {
+    return header[column];
+  }
+
+  /**
+   * Moves to the next record, reusing the buffer of the previous one.
+   *
+   * @return false once the input is exhausted.
+   */
+  public boolean next() throws IOException {
+    rowLen = 0;
+    columns = 0;
+
+    int c = read();
+    while (c == '\n' || c == '\r') {
+      c = read();
+    }
+    if (c == EOF) {
+      return false;
+    }
+
+    while (true) {
+      int start = rowLen;
+      if (quotes && c == '"') {
+        while (true) {
+          c = read();
+          if (c == EOF) {
+            throw new IOException("Unterminated quoted field in row " + (rowNumber + 1));
+          }
+          if (c == '"') {
+            c = read();
+            if (c != '"') {
+              break;
+            }
+          }
+          append((char) c);
+        }
+      }
+      while (c != EOF && c != separator && c != '\n' && c != '\r') {
+        append((char) c);
+        c = read();
+      }
+      addColumn(start, rowLen);
+
+      if (c == separator) {
+        c = read();
+        continue;
+      }
+      if (c == '\r') {
+        c = read();
+        if (c != '\n') {
+          pushback = c;
+        }
+      }
+      break;
+    }
+
+    rowNumber++;
+    if (header != null && columns != header.length) {
+      throw new IOException("Row " + rowNumber + " has " + columns
+        + " columns, expected " + header.length);
+    }
+    return true;
+  }
+
+  public boolean isEmpty(int column) {
+    return starts[column] == ends[column];
+  }
+
+  public String stringValue(int column) {
+    return new String(row, starts[column], ends[column] - starts[column]);
+  }
+
+  /**
+   * Builds a document from the current record, with one field per column.
+   */
+  public JsonObject toJsonObject() {
+    JsonObject object = JsonObject.create();
+    for (int i = 0; i < header.length; i++) {
+      object.put(header[i], stringValue(i));
+    }
+    return object;
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private int read() throws IOException {
+    if (pushback != EOF) {
+      int c = pushback;
+      pushback = EOF;
+      return c;
+    }
+    if (inputPos == inputLen) {
+      inputLen = reader.read(input, 0, input.length);
+      inputPos = 0;
+      if (inputLen <= 0) {
+        inputLen = 0;
+        return EOF;
+      }
+    }
+    return input[inputPos++];
+  }
+
+  private void append(char c) {
+    if (rowLen == row.length) {
+      row = Arrays.copyOf(row, row.length * 2);
+    }
+    row[rowLen++] = c;
+  }
+
+  private void addColumn(int start, int end) {
+    if (columns == starts.length) {
+      starts = Arrays.copyOf(starts, columns * 2);
+      ends = Arrays.copyOf(ends, columns * 2);
+    }
+    starts[columns] = start;
+    ends[columns] = end;
+    columns++;
+  }
+}
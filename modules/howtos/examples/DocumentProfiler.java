@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.codec.RawJsonTranscoder;
+import com.couchbase.client.java.json.JsonArray;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.HdrHistogram.Histogram;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Samples documents from a collection and profiles their shape: size,
+ * number of fields, nesting depth and how well they compress. From that it
+ * suggests a {@code CompressionConfig.minSize}, and points out top-level
+ * fields which are small next to the document holding them, where a
+ * {@code lookupIn} or {@code mutateIn} would move much less data than a
+ * full get or replace.
+ * <p>
+ * Several sampling scans with different seeds run concurrently. The server
+ * compresses with Snappy, which is not available here, so compressibility is
+ * measured with Deflate at its fastest level; Snappy usually saves somewhat
+ * less, so treat the ratios as optimistic.
+ */
+public class DocumentProfiler {
+
+  // the SDK's default: only send compressed if it saves at least 17%
+  static final double MIN_RATIO = 0.83;
+
+  // a field is a sub-document candidate in documents at least this big
+  // if its value is at most this share of the document
+  static final int SUBDOC_MIN_DOCUMENT_SIZE = 1024;
+  static final double SUBDOC_MAX_SHARE = 0.05;
+
+  static final int SIZE_BUCKETS = 32;
+
+  private static final JsonFactory JSON = new JsonFactory();
+
+  private final ReactiveCollection collection;
+
+  public DocumentProfiler(Collection collection) {
+    this.collection = collection.reactive();
+  }
+
+  /**
+   * Samples about {@code sampleSize} documents with {@code scans} concurrent
+   * sampling scans, skipping documents seen by more than one of them.
+   */
+  public JsonObject profile(long sampleSize, int scans) {
+    ScanOptions options = ScanOptions.scanOptions().transcoder(RawJsonTranscoder.INSTANCE);
+    Set<String> seen = ConcurrentHashMap.newKeySet();
+    long perScan = Math.max(1, sampleSize / scans);
+
+    Profile total = Flux.range(0, scans)
+      .flatMap(seed -> collection.scan(ScanType.samplingScan(perScan, seed), options)
+          .filter(result -> seen.add(result.id()))
+          // parsing and compressing is CPU work, keep it off the IO threads
+          .publishOn(Schedulers.parallel())
+          .reduceWith(Profile::new, (profile, result) -> {
+            profile.add(result);
+            return profile;
+          }),
+        scans)
+      .reduce(Profile::merge)
+      .blockOptional()
+      .orElseGet(Profile::new);
+
+    try {
+      return total.toJson();
+    }
+    finally {
+      total.release();
+    }
+  }
+
+  /**
+   * The profile of the documents one scan has seen, or of several merged.
+   */
+  static final class Profile {
+    private final Histogram sizes = new Histogram(3);
+    private final Histogram fields = new Histogram(3);
+    private final Histogram depths = new Histogram(3);
+    // compressed size per thousand bytes of input
+    private final Histogram ratios = new Histogram(3);
+
+    // original and compressed bytes by power of two document size
+    private final long[] bucketBytes = new long[SIZE_BUCKETS];
+    private final long[] bucketCompressed = new long[SIZE_BUCKETS];
+
+    private final Map<String, FieldProfile> topLevelFields = new HashMap<>();
+    private long documents;
+    private long bytes;
+    private long nonJson;
+
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private byte[] compressBuffer = new byte[64 * 1024];
+
+    void add(ScanResult result) {
+      add(result.contentAs(byte[].class));
+    }
+
+    void add(byte[] content) {
+      documents++;
+      bytes += content.length;
+      sizes.recordValue(Math.max(1, content.length));
+
+      int compressed = compressedSize(content);
+      ratios.recordValue(Math.max(1, 1000L * compressed / Math.max(1, content.length)));
+      int bucket = Math.min(SIZE_BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(content.length));
+      bucketBytes[bucket] += content.length;
+      bucketCompressed[bucket] += compressed;
+
+      try {
+        analyzeStructure(content);
+      }
+      catch (IOException e) {
+        // binary documents or anything else which isn't a JSON object
+        nonJson++;
+      }
+    }
+
+    Profile merge(Profile other) {
+      sizes.add(other.sizes);
+      fields.add(other.fields);
+      depths.add(other.depths);
+      ratios.add(other.ratios);
+      for (int i = 0; i < SIZE_BUCKETS; i++) {
+        bucketBytes[i] += other.bucketBytes[i];
+        bucketCompressed[i] += other.bucketCompressed[i];
+      }
+      other.topLevelFields.forEach((name, field) ->
+        topLevelFields.computeIfAbsent(name, n -> new FieldProfile()).merge(field));
+      documents += other.documents;
+      bytes += other.bytes;
+      nonJson += other.nonJson;
+      other.release();
+      return this;
+    }
+
+    // frees the deflater's native memory
+    void release() {
+      deflater.end();
+    }
+
+    // counts every field at any depth, and measures top-level values by their byte offsets
+    private void analyzeStructure(byte[] content) throws IOException {
+      try (JsonParser parser = JSON.createParser(content)) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          throw new IOException("not a JSON object");
+        }
+        int depth = 1;
+        int maxDepth = 1;
+        int fieldCount = 0;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+          if (token == JsonToken.FIELD_NAME) {
+            fieldCount++;
+            if (depth == 1) {
+              String name = parser.getCurrentName();
+              JsonToken value = parser.nextToken();
+              long start = parser.getTokenLocation().getByteOffset();
+              if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                // walk the value instead of skipping it, so nested fields are counted
+                int valueDepth = 1;
+                maxDepth = Math.max(maxDepth, 2);
+                while (valueDepth > 0 && (token = parser.nextToken()) != null) {
+                  if (token == JsonToken.FIELD_NAME) {
+                    fieldCount++;
+                  }
+                  else if (token.isStructStart()) {
+                    valueDepth++;
+                    maxDepth = Math.max(maxDepth, valueDepth + 1);
+                  }
+                  else if (token.isStructEnd()) {
+                    valueDepth--;
+                  }
+                }
+              }
+              else {
+                // scalars are read lazily, so make the parser consume the whole value first
+                parser.finishToken();
+              }
+              long end = parser.getCurrentLocation().getByteOffset();
+              topLevelFields.computeIfAbsent(name, n -> new FieldProfile())
+                .add(end - start, content.length);
+            }
+          }
+          else if (token.isStructStart()) {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+          }
+          else if (token.isStructEnd()) {
+            depth--;
+          }
+        }
+        fields.recordValue(fieldCount);
+        depths.recordValue(maxDepth);
+      }
+    }
+
+    private int compressedSize(byte[] content) {
+      deflater.reset();
+      deflater.setInput(content);
+      deflater.finish();
+      int total = 0;
+      while (!deflater.finished()) {
+        total += deflater.deflate(compressBuffer);
+      }
+      return total;
+    }
+
+    // the average size of a top-level field's value, or 0 if it was never seen
+    double averageFieldBytes(String name) {
+      FieldProfile field = topLevelFields.get(name);
+      return field == null ? 0 : field.averageBytes();
+    }
+
+    JsonObject toJson() {
+      JsonObject profile = JsonObject.create()
+        .put("documents", documents)
+        .put("nonJsonDocuments", nonJson)
+        .put("bytes", bytes)
+        .put("size", percentiles(sizes))
+        .put("fieldCount", percentiles(fields))
+        .put("depth", percentiles(depths))
+        .put("compressedPerThousand", percentiles(ratios));
+
+      JsonArray buckets = JsonArray.create();
+      for (int i = 0; i < SIZE_BUCKETS; i++) {
+        if (bucketBytes[i] > 0) {
+          buckets.add(JsonObject.create()
+            .put("minSize", i == 0 ? 0 : 1L << (i - 1))
+            .put("bytes", bucketBytes[i])
+            .put("ratio", (double) bucketCompressed[i] / bucketBytes[i]));
+        }
+      }
+      profile.put("compressionBySize", buckets);
+
+      JsonObject fieldsJson = JsonObject.create();
+      topLevelFields.forEach((name, field) -> fieldsJson.put(name, field.toJson(documents)));
+      profile.put("topLevelFields", fieldsJson);
+
+      return profile.put("recommendations", recommendations());
+    }
+
+    private JsonObject recommendations() {
+      JsonObject recommendations = JsonObject.create();
+
+      // the smallest size from which documents of every larger size compress well enough
+      Long minSize = null;
+      for (int i = SIZE_BUCKETS - 1; i >= 0; i--) {
+        if (bucketBytes[i] == 0) {
+          continue;
+        }
+        if ((double) bucketCompressed[i] / bucketBytes[i] > MIN_RATIO) {
+          break;
+        }
+        minSize = i == 0 ? 0L : 1L << (i - 1);
+      }
+      if (minSize != null) {
+        recommendations.put("compressionMinSize", Math.max(32, minSize));
+        recommendations.put("compressionMinRatio", MIN_RATIO);
+      }
+      else {
+        recommendations.putNull("compressionMinSize");
+        recommendations.put("compressionNote",
+          "no document size compresses below the minimum ratio, so compression would rarely be used");
+      }
+
+      JsonArray subdoc = JsonArray.create();
+      topLevelFields.forEach((name, field) -> {
+        if (field.isSubdocCandidate(documents)) {
+          subdoc.add(name);
+        }
+      });
+      recommendations.put("subdocCandidates", subdoc);
+      return recommendations;
+    }
+  }
+
+  /**
+   * How often a top-level field appears, how big its value is, and how big
+   * the documents holding it are.
+   */
+  static final class FieldProfile {
+    private long count;
+    private long valueBytes;
+    private long documentBytes;
+
+    void add(long valueSize, long documentSize) {
+      count++;
+      valueBytes += valueSize;
+      documentBytes += documentSize;
+    }
+
+    void merge(FieldProfile other) {
+      count += other.count;
+      valueBytes += other.valueBytes;
+      documentBytes += other.documentBytes;
+    }
+
+    // small values in big documents, in at least half of the documents
+    boolean isSubdocCandidate(long documents) {
+      if (count == 0 || count * 2 < documents) {
+        return false;
+      }
+      double averageDocument = (double) documentBytes / count;
+      double averageValue = (double) valueBytes / count;
+      return averageDocument >= SUBDOC_MIN_DOCUMENT_SIZE && averageValue / averageDocument <= SUBDOC_MAX_SHARE;
+    }
+
+    double averageBytes() {
+      return count == 0 ? 0 : (double) valueBytes / count;
+    }
+
+    JsonObject toJson(long documents) {
+      return JsonObject.create()
+        .put("presence", documents == 0 ? 0 : (double) count / documents)
+        .put("averageBytes", averageBytes())
+        .put("shareOfDocument", documentBytes == 0 ? 0 : (double) valueBytes / documentBytes);
+    }
+  }
+
+  private static JsonObject percentiles(Histogram histogram) {
+    return JsonObject.create()
+      .put("min", histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue())
+      .put("p50", histogram.getValueAtPercentile(50))
+      .put("p90", histogram.getValueAtPercentile(90))
+      .put("p99", histogram.getValueAtPercentile(99))
+      .put("max", histogram.getMaxValue())
+      .put("mean", histogram.getMean());
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("hotel");
+
+    // a string value of 100 characters is 102 bytes with its quotes
+    Profile check = new Profile();
+    check.add(("{\"id\":1,\"name\":\"" + "x".repeat(100) + "\",\"tags\":[\"a\"]}").getBytes(StandardCharsets.UTF_8));
+    System.out.println("Measured a 102 byte string field as " + (long) check.averageFieldBytes("name") + " bytes");
+    check.release();
+
+    // tag::profile[]
+    DocumentProfiler profiler = new DocumentProfiler(collection);
+    JsonObject profile = profiler.profile(1000, Runtime.getRuntime().availableProcessors());
+
+    // one line of JSON, ready for a dashboard or jq
+    System.out.println(profile);
+    // end::profile[]
+
+    cluster.disconnect();
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.LookupInResult;
+import com.couchbase.client.java.kv.LookupInSpec;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+/**
+ * Reads from the active copy, and if it has not answered within a
+ * threshold also from a replica, returning whichever answers first.
+ * <p>
+ * The threshold is either fixed, or a percentile of recent active read
+ * latencies, so only the slowest reads are hedged. A token bucket caps
+ * the extra load: every read adds {@code budget} tokens (0.05 allows one
+ * hedge per 20 reads), and a hedge takes one whole token.
+ * <p>
+ * An error from the active read is returned as is, since a missing
+ * document or a failed lookup is the authoritative answer; a failed
+ * replica read is ignored. A replica may be slightly behind the active
+ * copy, so only use this where reading a recent older version is fine.
+ */
+public class HedgedReads {
+
+  // refresh the percentile threshold at most this often
+  static final long REFRESH_NANOS = Duration.ofSeconds(1).toNanos();
+  static final long MIN_SAMPLES = 100;
+  static final long MAX_BURST_TOKENS = 10;
+
+  private static final long TOKEN = 1_000_000;
+
+  private final ReactiveCollection collection;
+  private final double percentile;
+  private final long tokensPerRead;
+
+  private volatile long thresholdNanos;
+  private final Recorder activeLatencies = new Recorder(3);
+  private volatile long lastRefreshNanos = System.nanoTime();
+  private final AtomicLong tokens = new AtomicLong(TOKEN);
+
+  private final LongAdder reads = new LongAdder();
+  private final LongAdder hedges = new LongAdder();
+  private final LongAdder wins = new LongAdder();
+  private final LongAdder denied = new LongAdder();
+
+  private HedgedReads(Collection collection, Duration threshold, double percentile, double budget) {
+    this.collection = collection.reactive();
+    this.thresholdNanos = threshold.toNanos();
+    this.percentile = percentile;
+    this.tokensPerRead = (long) (budget * TOKEN);
+  }
+
+  /**
+   * Hedges reads which take longer than the given threshold.
+   */
+  public static HedgedReads fixed(Collection collection, Duration threshold, double budget) {
+    return new HedgedReads(collection, threshold, 0, budget);
+  }
+
+  /**
+   * Hedges reads which take longer than the given percentile of recent
+   * reads, starting from {@code initialThreshold} until enough reads have
+   * been seen.
+   */
+  public static HedgedReads percentile(Collection collection, double percentile, Duration initialThreshold,
+                                       double budget) {
+    return new HedgedReads(collection, initialThreshold, percentile, budget);
+  }
+
+  public Mono<GetResult> get(String id) {
+    return hedge(collection.get(id), collection.getAnyReplica(id).cast(GetResult.class));
+  }
+
+  public Mono<LookupInResult> lookupIn(String id, List<LookupInSpec> specs) {
+    return hedge(collection.lookupIn(id, specs), collection.lookupInAnyReplica(id, specs).cast(LookupInResult.class));
+  }
+
+  public long reads() {
+    return reads.sum();
+  }
+
+  public long hedges() {
+    return hedges.sum();
+  }
+
+  /**
+   * The number of hedged reads where the replica answered first.
+   */
+  public long wins() {
+    return wins.sum();
+  }
+
+  /**
+   * The number of reads which were slow enough to hedge, but had no budget left.
+   */
+  public long denied() {
+    return denied.sum();
+  }
+
+  public Duration threshold() {
+    return Duration.ofNanos(thresholdNanos);
+  }
+
+  @Override
+  public String toString() {
+    long readCount = reads();
+    long hedgeCount = hedges();
+    return String.format(
+      "HedgedReads{threshold=%.0fus, reads=%d, hedges=%d (%.2f%%), wins=%d (%.1f%% of hedges), denied=%d}",
+      thresholdNanos / 1000.0, readCount, hedgeCount, readCount == 0 ? 0 : 100.0 * hedgeCount / readCount,
+      wins(), hedgeCount == 0 ? 0 : 100.0 * wins() / hedgeCount, denied());
+  }
+
+  private <T> Mono<T> hedge(Mono<T> active, Mono<T> replica) {
+    return Mono.defer(() -> {
+      reads.increment();
+      addTokens();
+      refreshThreshold();
+
+      long start = System.nanoTime();
+      AtomicBoolean replicaWon = new AtomicBoolean();
+      Mono<T> timedActive = active.doFinally(signal -> {
+        // an active read cancelled because the replica answered first took at
+        // least this long; one cancelled by the caller says nothing
+        if (signal == SignalType.ON_COMPLETE || (signal == SignalType.CANCEL && replicaWon.get())) {
+          activeLatencies.recordValue(Math.max(1, System.nanoTime() - start));
+        }
+      });
+
+      Mono<T> hedged = Mono.delay(Duration.ofNanos(thresholdNanos))
+        .flatMap(tick -> {
+          if (!takeToken()) {
+            denied.increment();
+            return Mono.never();
+          }
+          hedges.increment();
+          return replica
+            .doOnNext(result -> {
+              // set before firstWithSignal cancels the active read
+              replicaWon.set(true);
+              wins.increment();
+            })
+            // leave the outcome to the active read
+            .onErrorResume(e -> Mono.never());
+        });
+
+      // the first signal wins, so an error from the active read is not held back
+      return Mono.firstWithSignal(timedActive, hedged);
+    });
+  }
+
+  private void addTokens() {
+    tokens.accumulateAndGet(tokensPerRead, (current, add) -> Math.min(MAX_BURST_TOKENS * TOKEN, current + add));
+  }
+
+  private boolean takeToken() {
+    long current;
+    do {
+      current = tokens.get();
+      if (current < TOKEN) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(current, current - TOKEN));
+    return true;
+  }
+
+  private void refreshThreshold() {
+    if (percentile <= 0 || System.nanoTime() - lastRefreshNanos < REFRESH_NANOS) {
+      return;
+    }
+    synchronized (this) {
+      long now = System.nanoTime();
+      if (now - lastRefreshNanos < REFRESH_NANOS) {
+        return;
+      }
+      lastRefreshNanos = now;
+      Histogram recent = activeLatencies.getIntervalHistogram();
+      if (recent.getTotalCount() >= MIN_SAMPLES) {
+        thresholdNanos = recent.getValueAtPercentile(percentile);
+      }
+    }
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::hedged-reads[]
+    // hedge the slowest 5% of reads, with at most one extra read per 20
+    HedgedReads reads = HedgedReads.percentile(collection, 95.0, Duration.ofMillis(10), 0.05);
+
+    Flux.range(0, 10_000)
+      .flatMap(i -> reads.get("airline_10"), 64)
+      .blockLast();
+
+    System.out.println(reads);
+    // end::hedged-reads[]
+
+    cluster.disconnect();
+  }
+}
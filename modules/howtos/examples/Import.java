@@ -22,11 +22,19 @@ import com.couchbase.client.java.kv.*;
 import com.couchbase.client.java.json.*;
 // end::json-jsonl-import[]
 
+// tag::json-streaming-import[]
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonLocation;
+// end::json-streaming-import[]
+
 // Java helpers for data-structure construction
 import java.util.Map;
 import java.util.List;
 
 // tag::file-imports[]
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.Files;
 import java.io.IOException;
@@ -42,10 +50,31 @@ import com.opencsv.*;
 import com.couchbase.client.java.ReactiveCollection;
 import com.couchbase.client.java.json.JsonObject;
 import com.couchbase.client.java.kv.MutationResult;
+import com.couchbase.client.java.codec.RawJsonTranscoder;
+import com.couchbase.client.core.error.CasMismatchException;
+import com.couchbase.client.core.error.DocumentExistsException;
+import com.couchbase.client.core.error.DocumentNotFoundException;
 
+import reactor.core.Exceptions;
 import reactor.core.publisher.Flux;
-import java.util.stream.BaseStream;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
 import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.nio.file.DirectoryStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 import java.time.Duration;
 
 public class Import {
@@ -57,8 +86,20 @@ public class Import {
 
   private Collection collection;
   private ReactiveCollection reactiveCollection;
+
+  // shared by all batch imports, so the limit it learns carries over
+  private AdaptiveConcurrencyLimiter limiter = AdaptiveConcurrencyLimiter.create();
+  // attempts after the first for a row which timed out or hit a temporary failure
+  private static final int MAX_RETRIES = 5;
+
+  // prints a summary every few seconds; set -Dimport.debugSampleEvery=1000
+  // to also print every 1000th row
+  private final ProgressReporter progress;
   
   public Import() {
+    progress = new ProgressReporter(
+      "import", Duration.ofSeconds(5), Integer.getInteger("import.debugSampleEvery", 0));
+
     // tag::connect[]
     Cluster cluster = Cluster.connect(
       connectionString,
@@ -75,6 +116,11 @@ public class Import {
     reactiveCollection = collection.reactive();
     // end::reactiveCollection[]
   }
+
+  // stops the periodic progress output
+  void close() {
+    progress.close();
+  }
   
   public static void main(String... args) {
     Import importer = new Import();
@@ -87,6 +133,16 @@ public class Import {
     importer.importTSV_batch();
     importer.importJSON_batch();
     importer.importJSONL_batch();
+    importer.importJSONL_parallel();
+    importer.importJSONL_resumable();
+    importer.importJSONL_raw();
+    importer.importCSV_columnar();
+    importer.importTSV_columnar();
+    importer.importCSV_changed();
+    importer.importJSONL_coalesced();
+    importer.importDirectory(
+      Paths.get("modules/howtos/examples"), "import.{csv,tsv,json,jsonl}{,.gz,.zst,.lz4}");
+    importer.close();
   }
   
   // NOTE: non-generic Map, because the readers produce slightly different outputs:
@@ -98,8 +154,24 @@ public class Import {
   // In real code, you might choose to cast from Object to Map<String,Object>
   // or define multiple methods, but those confuse the example a little.
   
+  // tag::input[]
+  static final String[] COMPRESSED_SUFFIXES = { "", ".gz", ".zst", ".lz4" };
+
+  // Finds an input file, which may also have been delivered compressed,
+  // for example as import.csv.gz.
+  public static Path input(String name) {
+    for (String suffix : COMPRESSED_SUFFIXES) {
+      Path path = Paths.get("modules/howtos/examples", name + suffix);
+      if (Files.exists(path)) {
+        return path;
+      }
+    }
+    return Paths.get("modules/howtos/examples", name);
+  }
+  // end::input[]
+
   // tag::preprocess[]
-  public JsonDocument preprocess(Map row) {
+  public static JsonDocument preprocess(Map row) {
     Map value = new HashMap(row);
 
     // define the KEY
@@ -111,6 +183,78 @@ public class Import {
     return new JsonDocument(key, JsonObject.from(value));
   }
   // end::preprocess[]
+
+  // tag::preprocessRaw[]
+  static final byte[][] KEY_FIELDS = {
+    JsonFieldScanner.name("type"),
+    JsonFieldScanner.name("id"),
+    JsonFieldScanner.name("importer")
+  };
+  static final byte[] IMPORTER_FIELD =
+    "\"importer\":\"Java SDK\"".getBytes(StandardCharsets.UTF_8);
+
+  // Does the same as preprocess, but on the serialized row: only the key
+  // fields are decoded, and the importer field is spliced into the bytes.
+  public static RawJsonDocument preprocessRaw(byte[] line) {
+    long[] ranges = new long[KEY_FIELDS.length];
+    int objectStart = JsonFieldScanner.scan(line, 0, line.length, KEY_FIELDS, ranges);
+
+    if (ranges[2] != JsonFieldScanner.MISSING
+        || !isVerbatimKeyPart(line, ranges[0]) || !isVerbatimKeyPart(line, ranges[1])) {
+      // the row already has an importer field, which has to be replaced, or a
+      // key field which preprocess would write differently, such as 1.50 as 1.5
+      JsonDocument doc = preprocess(
+        JsonObject.fromJson(new String(line, StandardCharsets.UTF_8)).toMap());
+      return new RawJsonDocument(doc.getId(), doc.getContent().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // define the KEY
+    String key = valueOrNull(line, ranges[0]) + "_" + valueOrNull(line, ranges[1]);
+
+    // insert "importer":"Java SDK" as the first field
+    boolean empty = JsonFieldScanner.isEmptyObject(line, objectStart, line.length);
+    int insertAt = objectStart + 1;
+    byte[] content = new byte[line.length + IMPORTER_FIELD.length + (empty ? 0 : 1)];
+    System.arraycopy(line, 0, content, 0, insertAt);
+    System.arraycopy(IMPORTER_FIELD, 0, content, insertAt, IMPORTER_FIELD.length);
+    int pos = insertAt + IMPORTER_FIELD.length;
+    if (!empty) {
+      content[pos++] = ',';
+    }
+    System.arraycopy(line, insertAt, content, pos, line.length - insertAt);
+
+    return new RawJsonDocument(key, content);
+  }
+
+  private static String valueOrNull(byte[] line, long range) {
+    return range == JsonFieldScanner.MISSING ? "null" : JsonFieldScanner.valueAsString(line, range);
+  }
+
+  // true if the value reads the same in the key as after decoding: a string,
+  // true, false, null, or an integer without leading zeros, a fraction or an exponent
+  static boolean isVerbatimKeyPart(byte[] line, long range) {
+    if (range == JsonFieldScanner.MISSING) {
+      return true;
+    }
+    int start = JsonFieldScanner.start(range);
+    int end = JsonFieldScanner.end(range);
+    byte first = line[start];
+    if (first == '"' || first == 't' || first == 'f' || first == 'n') {
+      return true;
+    }
+    int pos = first == '-' ? start + 1 : start;
+    if (pos == end || (line[pos] == '0' && (end - pos > 1 || pos > start))) {
+      // nothing after the sign, a leading zero, or -0
+      return false;
+    }
+    for (; pos < end; pos++) {
+      if (line[pos] < '0' || line[pos] > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+  // end::preprocessRaw[]
   
   // tag::upsertDocument[]
   public void upsertRow(Map row) {
@@ -121,13 +265,50 @@ public class Import {
     Object value = doc.getContent();
     
     // upsert the document
+    long start = System.nanoTime();
     collection.upsert(key, value);
     
     // any required logging
-    System.out.println(key);
-    System.out.println(value);
+    progress.recordSuccess(System.nanoTime() - start);
+    progress.sample(key, value);
   }
   // end::upsertDocument[]
+
+  // tag::upsertAll[]
+  public Flux<MutationResult> upsertAll(Flux<JsonDocument> docs) {
+    // the limiter adjusts the number of upserts in flight to what the cluster can take
+    return docs.flatMap(
+      doc -> limited(doc.getId(), () -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
+        // the progress reporter has counted the failure, carry on with the other rows
+        .onErrorResume(e -> Mono.empty()),
+      limiter.maxLimit());
+  }
+
+  // Runs the operation under the limiter, retrying the timeouts and temporary
+  // failures it backs off on, and records the final outcome for the row.
+  private <T> Mono<T> limited(String id, Supplier<Mono<T>> operation) {
+    return progress.track(id,
+      limiter.execute(operation).retryWhen(AdaptiveConcurrencyLimiter.retryOnOverload(MAX_RETRIES)));
+  }
+  // end::upsertAll[]
+
+  // tag::upsertInKeyOrder[]
+  static final int KEY_LANES = 256;
+
+  // Like upsertAll, but writes to the same key run one after the other, so
+  // an older version still in flight can never overwrite a newer one. Keys
+  // are spread over a fixed number of lanes by hash, each writing in order.
+  public Flux<MutationResult> upsertInKeyOrder(Flux<JsonDocument> docs) {
+    return docs
+      .groupBy(doc -> Math.floorMod(doc.getId().hashCode(), KEY_LANES))
+      .flatMap(
+        lane -> lane.concatMap(doc ->
+          limited(doc.getId(), () -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
+            .onErrorResume(e -> Mono.empty())),
+        // every lane has to be subscribed, or groupBy stalls
+        KEY_LANES);
+  }
+  // end::upsertInKeyOrder[]
   
   
   // tag::importCSV[]
@@ -157,12 +338,13 @@ public class Import {
   public void importCSV_batch() {
     // tag::omit[]
     System.out.println("importCSV_batch");
+    progress.reset();
     // end::omit[]
     
     Flux<Map<String,String>> rows = Flux.generate(
       
       () -> new CSVReaderHeaderAware(
-        new FileReader("modules/howtos/examples/import.csv")),
+        CompressedInput.reader(input("import.csv"))),
       
       (state, sink) -> {
         try {
@@ -182,11 +364,11 @@ public class Import {
     Flux<MutationResult> results = 
       rows
       .map(row -> preprocess(row))
-      .flatMap(doc -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
-      .doOnNext(System.out::println);
+      .transform(this::upsertAll);
 
     results.blockLast(Duration.ofSeconds(60));
     // tag::omit[]
+    System.out.println(progress.summary());
     System.out.println("DONE");
     // end::omit[]
   }
@@ -231,6 +413,7 @@ public class Import {
   public void importTSV_batch() {
     // tag::omit[]
     System.out.println("importTSV_batch");
+    progress.reset();
     // end::omit[]
 
     Flux<Map<String,String>> rows = Flux.generate(
@@ -243,7 +426,7 @@ public class Import {
           .build();
         return
           new CSVReaderHeaderAwareBuilder(
-            new FileReader("modules/howtos/examples/import.tsv"))
+            CompressedInput.reader(input("import.tsv")))
           .withCSVParser(parser)
           .build();
       },
@@ -267,33 +450,175 @@ public class Import {
     Flux<MutationResult> results = 
       rows
       .map(row -> preprocess(row))
-      .flatMap(doc -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
-      .doOnNext(System.out::println);
+      .transform(this::upsertAll);
 
     results.blockLast(Duration.ofSeconds(60));
 
+    System.out.println(progress.summary());
     System.out.println("DONE");
     // end::omit[]
   }
 // end::importTSV_batch[]
   
+  // tag::jsonArrayRows[]
+  static final JsonFactory jsonFactory = new JsonFactory();
+
+  // Streams the elements of a top-level JSON array one at a time, so only
+  // the rows currently in flight are ever held in memory.
+  public static Flux<Map<String,Object>> jsonArrayRows(Path path) {
+    return Flux.generate(
+      
+      () -> {
+        JsonParser parser = jsonFactory.createParser(CompressedInput.open(path));
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+          parser.close();
+          throw new java.io.IOException("expected a JSON array in " + path);
+        }
+        return parser;
+      },
+      
+      (parser, sink) -> {
+        try {
+          JsonToken token = parser.nextToken();
+          if (token == JsonToken.START_OBJECT) {
+            sink.next((Map<String,Object>) readValue(parser));
+          }
+          else if (token == JsonToken.END_ARRAY || token == null) {
+            sink.complete();
+          }
+          else {
+            // say where, rather than fail later on a value which is not a row
+            JsonLocation at = parser.getTokenLocation();
+            sink.error(new java.io.IOException("expected a JSON object at line " + at.getLineNr()
+              + ", column " + at.getColumnNr() + " of " + path + ", but got " + token));
+          }
+          return parser;
+        }
+        catch (Exception e) { throw Exceptions.propagate(e); }
+      },
+      parser -> {
+        try { parser.close(); }
+        catch (Exception e) { throw Exceptions.propagate(e); }
+      });
+  }
+
+  // Reads the value at the parser's current token into maps, lists and
+  // boxed scalars, the same shapes JsonObject.toMap() produces.
+  static Object readValue(JsonParser parser) throws IOException {
+    switch (parser.currentToken()) {
+      case START_OBJECT:
+        Map<String,Object> object = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          object.put(name, readValue(parser));
+        }
+        return object;
+      case START_ARRAY:
+        List<Object> array = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          array.add(readValue(parser));
+        }
+        return array;
+      case VALUE_STRING: return parser.getText();
+      case VALUE_NUMBER_INT: return parser.getNumberValue();
+      case VALUE_NUMBER_FLOAT: return parser.getDoubleValue();
+      case VALUE_TRUE: return Boolean.TRUE;
+      case VALUE_FALSE: return Boolean.FALSE;
+      case VALUE_NULL: return null;
+      default: throw new IOException("unexpected " + parser.currentToken());
+    }
+  }
+  // end::jsonArrayRows[]
+
+  // tag::preprocessColumns[]
+  // Builds the document straight from the columns of the current row,
+  // without going through a Map.
+  public JsonDocument preprocessColumns(CsvRowCursor row) {
+    JsonObject value = row.toJsonObject();
+
+    // define the KEY
+    String key = value.get("type") + "_" + value.get("id");
+
+    // do any additional processing
+    value.put("importer", "Java SDK");
+
+    return new JsonDocument(key, value);
+  }
+  // end::preprocessColumns[]
+
+  // tag::columnarRows[]
+  public Flux<JsonDocument> columnarRows(Callable<CsvRowCursor> open) {
+    return Flux.generate(
+      open,
+      (cursor, sink) -> {
+        try {
+          // the cursor reuses its buffer, so build the document before moving on
+          if (cursor.next()) { sink.next(preprocessColumns(cursor)); }
+          else { sink.complete(); }
+          return cursor;
+        }
+        catch (Exception e) { throw Exceptions.propagate(e); }
+      },
+      cursor -> {
+        try { cursor.close(); }
+        catch (Exception e) { throw Exceptions.propagate(e); }
+      });
+  }
+  // end::columnarRows[]
+
+  // tag::importCSV_columnar[]
+  public void importCSV_columnar() {
+    // tag::omit[]
+    System.out.println("importCSV_columnar");
+    progress.reset();
+    // end::omit[]
+
+    Flux<MutationResult> results =
+      columnarRows(() -> CsvRowCursor.csv(
+        CompressedInput.reader(input("import.csv"))))
+      .transform(this::upsertAll);
+
+    results.blockLast(Duration.ofSeconds(60));
+    // tag::omit[]
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importCSV_columnar[]
+
+  // tag::importTSV_columnar[]
+  public void importTSV_columnar() {
+    // tag::omit[]
+    System.out.println("importTSV_columnar");
+    progress.reset();
+    // end::omit[]
+
+    Flux<MutationResult> results =
+      columnarRows(() -> CsvRowCursor.tsv(
+        CompressedInput.reader(input("import.tsv"))))
+      .transform(this::upsertAll);
+
+    results.blockLast(Duration.ofSeconds(60));
+    // tag::omit[]
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importTSV_columnar[]
+
   // tag::importJSON[]
   public void importJSON() {
     try {
-      String content  = new String(
-        Files.readAllBytes( // read whole document into memory
-          Paths.get("modules/howtos/examples/import.json")),
-        StandardCharsets.UTF_8);
+      Path path = Paths.get("modules/howtos/examples/import.json");
       
-      for (Object row: JsonArray.fromJson(content)) {
-        JsonObject json = ((JsonObject) row);
-        upsertRow(json.toMap());
+      // read one array element at a time
+      for (Map<String,Object> row : jsonArrayRows(path).toIterable()) {
+        upsertRow(row);
       }
     }
-    catch (java.io.FileNotFoundException e) {
-      System.out.println("handle FileNotFoundException...");
-    }
-    catch (java.io.IOException e) {
+    catch (RuntimeException e) {
+      if (!(Exceptions.unwrap(e) instanceof java.io.IOException)) { throw e; }
       System.out.println("handle IOException...");
     }
   }
@@ -303,31 +628,26 @@ public class Import {
   public void importJSON_batch() {
     // tag::omit[]
     System.out.println("importJSON_batch");
+    progress.reset();
     // end::omit[]
 
     try {
-      String content  = new String(
-        Files.readAllBytes( // read whole document into memory
-          Paths.get("modules/howtos/examples/import.json")),
-        StandardCharsets.UTF_8);
+      Path path = input("import.json");
       
       Flux<MutationResult> results = 
-        Flux.fromIterable(JsonArray.fromJson(content))
-          .map(row -> ((JsonObject) row).toMap())
+        jsonArrayRows(path)
           .map(map -> preprocess(map))
-          .flatMap(doc -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
-          .doOnNext(System.out::println);
+          .transform(this::upsertAll);
 
       results.blockLast(Duration.ofSeconds(60));
     }
     // ...
     // tag::omit[]
-    catch (java.io.FileNotFoundException e) {
-      System.out.println("handle FileNotFoundException...");
-    }
-    catch (java.io.IOException e) {
+    catch (RuntimeException e) {
+      if (!(Exceptions.unwrap(e) instanceof java.io.IOException)) { throw e; }
       System.out.println("handle IOException...");
     }
+    System.out.println(progress.summary());
     System.out.println("DONE");
     // end::omit[]
   }
@@ -363,29 +683,430 @@ public class Import {
   public void importJSONL_batch() {
     // tag::omit[]
     System.out.println("importJSONL_batch");
+    progress.reset();
     // end::omit[]
 
     Flux<String> lines = Flux.using(
-      () -> Files.lines(Paths.get("modules/howtos/examples/import.jsonl")),
-      Flux::fromStream,
-      BaseStream::close);
+      () -> CompressedInput.reader(input("import.jsonl")),
+      reader -> Flux.fromStream(reader.lines()),
+      reader -> {
+        try { reader.close(); }
+        catch (Exception e) { throw new RuntimeException(e); }
+      });
 
     Flux<MutationResult> results =
       lines
           .map(line -> JsonObject.fromJson(line).toMap())
           .map(map -> preprocess(map))
-          .flatMap(doc -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
-          .doOnNext(System.out::println);
+          .transform(this::upsertAll);
 
     results.blockLast(Duration.ofSeconds(60));
     // tag::omit[]
+    System.out.println(progress.summary());
     System.out.println("DONE");
     // end::omit[]
   }
   // end::importJSONL_batch[]
 
+  // tag::importJSONL_parallel[]
+  public void importJSONL_parallel() {
+    // tag::omit[]
+    System.out.println("importJSONL_parallel");
+    progress.reset();
+    // end::omit[]
+
+    Path path = Paths.get("modules/howtos/examples/import.jsonl");
+    int parsers = Runtime.getRuntime().availableProcessors();
+
+    try {
+      long bytes = Files.size(path);
+      List<JsonlChunks.Chunk> chunks =
+        JsonlChunks.split(path, JsonlChunks.chunkSizeFor(bytes, parsers));
+
+      Flux<MutationResult> results =
+        Flux.fromIterable(chunks)
+          // parse up to one chunk per core, each on its own worker
+          .flatMap(chunk ->
+            JsonlChunks.lines(chunk)
+              // the whole chunk, with its line endings and any blank lines
+              .doOnComplete(() -> progress.recordBytes(chunk.length()))
+              .map(line -> JsonObject.fromJson(new String(line, StandardCharsets.UTF_8)).toMap())
+              .map(map -> preprocess(map))
+              .subscribeOn(Schedulers.parallel()),
+            parsers)
+          // and feed all of them into a single bounded upsert pipeline
+          .transform(this::upsertAll);
+
+      results.blockLast(Duration.ofSeconds(60));
+      System.out.println(limiter);
+    }
+    // ...
+    // tag::omit[]
+    catch (java.io.IOException e) {
+      System.out.println("handle IOException...");
+    }
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importJSONL_parallel[]
+
+  // tag::importJSONL_resumable[]
+  public void importJSONL_resumable() {
+    // tag::omit[]
+    System.out.println("importJSONL_resumable");
+    progress.reset();
+    // end::omit[]
+
+    Path path = Paths.get("modules/howtos/examples/import.jsonl");
+    Path journalPath = Paths.get("modules/howtos/examples/import.jsonl.journal");
+
+    try (ImportJournal journal = ImportJournal.open(journalPath, path, Duration.ofSeconds(1))) {
+      long from = journal.resumeOffset();
+      if (from > 0) {
+        System.out.println("Resuming import at byte " + from);
+      }
+      // only touched by the flatMapSequential mapper, which sees one line at a time
+      long[] readUpTo = { from };
+
+      Flux<Long> acknowledged =
+        Flux.fromIterable(JsonlChunks.split(path, from, JsonlChunks.MAX_CHUNK_SIZE))
+          .concatMap(JsonlChunks::linesWithEndOffsets)
+          // upserts still run concurrently, but complete in file order,
+          // so each offset seen here has every line before it stored
+          .flatMapSequential(line -> {
+              // everything up to the end of this line, whichever line endings the file uses
+              progress.recordBytes(line.end() - readUpTo[0]);
+              readUpTo[0] = line.end();
+              JsonDocument doc;
+              try {
+                doc = preprocess(
+                  JsonObject.fromJson(new String(line.bytes(), StandardCharsets.UTF_8)).toMap());
+              }
+              catch (RuntimeException e) {
+                // a malformed line is counted and skipped, so the journal moves past it
+                progress.recordError("line ending at byte " + line.end(), e);
+                return Mono.just(line.end());
+              }
+              // so is a row which still fails after the retries; limited has counted it
+              return limited(doc.getId(), () -> reactiveCollection.upsert(doc.getId(), doc.getContent()))
+                .onErrorResume(e -> Mono.empty())
+                .thenReturn(line.end());
+            },
+            limiter.maxLimit())
+          .doOnNext(journal::acknowledge);
+
+      acknowledged.blockLast(Duration.ofSeconds(60));
+      journal.complete();
+    }
+    // ...
+    // tag::omit[]
+    catch (java.io.IOException e) {
+      System.out.println("handle IOException...");
+    }
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importJSONL_resumable[]
+
+  // tag::importJSONL_raw[]
+  public void importJSONL_raw() {
+    // tag::omit[]
+    System.out.println("importJSONL_raw");
+    progress.reset();
+    // end::omit[]
+
+    Path path = Paths.get("modules/howtos/examples/import.jsonl");
+    int parsers = Runtime.getRuntime().availableProcessors();
+
+    try {
+      long bytes = Files.size(path);
+
+      Flux<MutationResult> results =
+        Flux.fromIterable(JsonlChunks.split(path, JsonlChunks.chunkSizeFor(bytes, parsers)))
+          .flatMap(chunk ->
+            JsonlChunks.lines(chunk)
+              .doOnComplete(() -> progress.recordBytes(chunk.length()))
+              .map(line -> preprocessRaw(line))
+              .subscribeOn(Schedulers.parallel()),
+            parsers)
+          // the bytes are already JSON, so the SDK sends them as they are
+          .flatMap(doc -> limited(doc.getId(), () ->
+                reactiveCollection.upsert(doc.getId(), doc.getContent(),
+                  UpsertOptions.upsertOptions().transcoder(RawJsonTranscoder.INSTANCE)))
+              .onErrorResume(e -> Mono.empty()),
+            limiter.maxLimit());
+
+      results.blockLast(Duration.ofSeconds(60));
+    }
+    // ...
+    // tag::omit[]
+    catch (java.io.IOException e) {
+      System.out.println("handle IOException...");
+    }
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importJSONL_raw[]
+
+  // tag::workUnits[]
+  // A piece of work for the directory import: a whole file, or one chunk
+  // of a large uncompressed JSONL file.
+  class WorkUnit {
+    private final String name;
+    private final long size;
+    private final Flux<JsonDocument> rows;
+
+    public WorkUnit(String name, long size, Flux<JsonDocument> rows) {
+      this.name = name;
+      this.size = size;
+      this.rows = rows;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public Flux<JsonDocument> getRows() {
+      return rows;
+    }
+  }
+
+  // Lists the files in the directory matching the glob, splitting large
+  // JSONL files into chunks, largest first so the long ones start early and
+  // the small ones fill in the gaps at the end.
+  public List<WorkUnit> workUnits(Path dir, String glob, int workers) throws IOException {
+    List<WorkUnit> units = new ArrayList<>();
+
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        long size = Files.size(file);
+        boolean compressed = CompressedInput.detect(file) != CompressedInput.Format.NONE;
+        String format = compressed ? name.substring(0, name.lastIndexOf('.')) : name;
+
+        if (format.endsWith(".jsonl") && !compressed) {
+          for (JsonlChunks.Chunk chunk :
+              JsonlChunks.split(file, JsonlChunks.chunkSizeFor(size, workers))) {
+            units.add(new WorkUnit(chunk.toString(), chunk.length(),
+              JsonlChunks.lines(chunk)
+                .map(line -> preprocess(
+                  JsonObject.fromJson(new String(line, StandardCharsets.UTF_8)).toMap()))));
+          }
+        }
+        else if (format.endsWith(".jsonl")) {
+          units.add(new WorkUnit(name, size,
+            Flux.using(
+              () -> CompressedInput.reader(file),
+              reader -> Flux.fromStream(reader.lines()),
+              reader -> {
+                try { reader.close(); }
+                catch (Exception e) { throw Exceptions.propagate(e); }
+              })
+            .map(line -> preprocess(JsonObject.fromJson(line).toMap()))));
+        }
+        else if (format.endsWith(".json")) {
+          units.add(new WorkUnit(name, size, jsonArrayRows(file).map(row -> preprocess(row))));
+        }
+        else if (format.endsWith(".csv")) {
+          units.add(new WorkUnit(name, size,
+            columnarRows(() -> CsvRowCursor.csv(CompressedInput.reader(file)))));
+        }
+        else if (format.endsWith(".tsv")) {
+          units.add(new WorkUnit(name, size,
+            columnarRows(() -> CsvRowCursor.tsv(CompressedInput.reader(file)))));
+        }
+        else {
+          System.out.println("Skipping " + file + ", unknown format");
+        }
+      }
+    }
+
+    units.sort(Comparator.comparingLong(WorkUnit::getSize).reversed());
+    return units;
+  }
+  // end::workUnits[]
+
+  // tag::importDirectory[]
+  public void importDirectory(Path dir, String glob) {
+    // tag::omit[]
+    System.out.println("importDirectory " + dir + " " + glob);
+    progress.reset();
+    // end::omit[]
+
+    int workers = Runtime.getRuntime().availableProcessors();
+
+    // an idle worker steals queued work from busy ones, so all cores
+    // keep parsing until the last unit is done
+    ForkJoinPool pool = new ForkJoinPool(
+      workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    Scheduler parsers = Schedulers.fromExecutorService(pool, "import-worker");
+
+    try {
+      List<WorkUnit> units = workUnits(dir, glob, workers);
+
+      Flux<MutationResult> results =
+        Flux.fromIterable(units)
+          // one unit per worker at a time, the next one starts as soon as any finishes
+          .flatMap(unit ->
+            unit.getRows()
+              .doOnComplete(() -> progress.recordBytes(unit.getSize()))
+              .subscribeOn(parsers),
+            workers)
+          // every file shares the same upsert budget and progress reporter
+          .transform(this::upsertAll);
+
+      results.blockLast();
+      System.out.println(limiter);
+    }
+    // ...
+    // tag::omit[]
+    catch (java.io.IOException e) {
+      System.out.println("handle IOException...");
+    }
+    // end::omit[]
+    finally {
+      parsers.dispose();
+      pool.shutdown();
+    }
+    // tag::omit[]
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importDirectory[]
+
+  // tag::contentHash[]
+  static final String HASH_XATTR = "importer.hash";
+
+  // counts rows whose stored hash matched, so nothing was written
+  private final LongAdder unchanged = new LongAdder();
+
+  public static String contentHash(JsonObject content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return Base64.getEncoder().encodeToString(digest.digest(content.toBytes()));
+    }
+    catch (NoSuchAlgorithmException e) {
+      // every JVM has to provide SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+  // end::contentHash[]
+
+  // tag::upsertChanged[]
+  // attempts after the first when another writer changed the document
+  // between reading its hash and writing it
+  static final int MAX_CAS_RETRIES = 10;
+
+  // Reads the hash stored with each document and writes only the rows
+  // whose content differs, together with their new hash.
+  public Flux<MutateInResult> upsertChanged(Flux<JsonDocument> docs) {
+    return docs.flatMap(
+      doc -> limited(doc.getId(), () -> upsertIfChanged(doc))
+        .onErrorResume(e -> Mono.empty()),
+      limiter.maxLimit());
+  }
+
+  private Mono<MutateInResult> upsertIfChanged(JsonDocument doc) {
+    String hash = contentHash(doc.getContent());
+
+    // the content and its hash are written in the same mutation
+    List<MutateInSpec> write = Arrays.asList(
+      MutateInSpec.upsert(HASH_XATTR, hash).xattr().createPath(),
+      MutateInSpec.replace("", doc.getContent()));
+
+    return Mono.defer(() -> reactiveCollection
+        .lookupIn(doc.getId(), Collections.singletonList(LookupInSpec.get(HASH_XATTR).xattr()))
+        .map(Optional::of)
+        // a new document has no hash yet
+        .onErrorResume(DocumentNotFoundException.class, e -> Mono.just(Optional.empty()))
+        .flatMap(stored -> {
+          if (!stored.isPresent()) {
+            // fails if another writer created it in the meantime
+            return reactiveCollection.mutateIn(doc.getId(), write,
+              MutateInOptions.mutateInOptions().storeSemantics(StoreSemantics.INSERT));
+          }
+          LookupInResult current = stored.get();
+          if (current.exists(0) && current.contentAs(0, String.class).equals(hash)) {
+            unchanged.increment();
+            return Mono.empty();
+          }
+          // fails if another writer changed it since the hash was read
+          return reactiveCollection.mutateIn(doc.getId(), write,
+            MutateInOptions.mutateInOptions().storeSemantics(StoreSemantics.REPLACE).cas(current.cas()));
+        }))
+      // read the hash again and decide on the current version
+      .retryWhen(Retry.max(MAX_CAS_RETRIES)
+        .filter(e -> e instanceof CasMismatchException || e instanceof DocumentExistsException));
+  }
+  // end::upsertChanged[]
+
+  // tag::importCSV_changed[]
+  public void importCSV_changed() {
+    // tag::omit[]
+    System.out.println("importCSV_changed");
+    progress.reset();
+    unchanged.reset();
+    // end::omit[]
+
+    Flux<MutateInResult> results =
+      columnarRows(() -> CsvRowCursor.csv(
+        CompressedInput.reader(input("import.csv"))))
+      .transform(this::upsertChanged);
+
+    results.blockLast(Duration.ofSeconds(60));
+    System.out.println(unchanged.sum() + " rows unchanged");
+    // tag::omit[]
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importCSV_changed[]
+
+  // tag::importJSONL_coalesced[]
+  public void importJSONL_coalesced() {
+    // tag::omit[]
+    System.out.println("importJSONL_coalesced");
+    progress.reset();
+    // end::omit[]
+
+    // keeps only the last version of each key seen within 1000 rows or 100ms
+    KeyCoalescer<JsonDocument> coalescer =
+      new KeyCoalescer<>(JsonDocument::getId, 1000, Duration.ofMillis(100));
+
+    Flux<String> lines = Flux.using(
+      () -> CompressedInput.reader(input("import.jsonl")),
+      reader -> Flux.fromStream(reader.lines()),
+      reader -> {
+        try { reader.close(); }
+        catch (Exception e) { throw new RuntimeException(e); }
+      });
+
+    Flux<MutationResult> results =
+      lines
+          .map(line -> preprocess(JsonObject.fromJson(line).toMap()))
+          .transform(coalescer)
+          // a key can still come again in the next window, so keep its writes in order
+          .transform(this::upsertInKeyOrder);
+
+    results.blockLast(Duration.ofSeconds(60));
+    System.out.println(coalescer.coalesced() + " rows coalesced");
+    // tag::omit[]
+    System.out.println(progress.summary());
+    System.out.println("DONE");
+    // end::omit[]
+  }
+  // end::importJSONL_coalesced[]
+
   // tag::JsonDocument[]
-  class JsonDocument {
+  public static class JsonDocument {
     private final String id;
     private final JsonObject content;
 
@@ -408,4 +1129,29 @@ public class Import {
     }
   }
   // end::JsonDocument[]
+
+  // tag::RawJsonDocument[]
+  public static class RawJsonDocument {
+    private final String id;
+    private final byte[] content;
+
+    public RawJsonDocument(String id, byte[] content) {
+      this.id = id;
+      this.content = content;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public byte[] getContent() {
+      return content;
+    }
+
+    @Override
+    public String toString() {
+      return "RawJsonDocument{id='" + id + "', content=" + new String(content, StandardCharsets.UTF_8) + "}";
+    }
+  }
+  // end::RawJsonDocument[]
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Properties;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Remembers how far into an input file an import has got, so that a failed
+ * run can resume there instead of starting again from the first row.
+ * <p>
+ * Acknowledging an offset only updates a field. A background timer writes
+ * the latest offset to disk at a fixed interval, and once more on close. Each
+ * write goes to a temporary file which is synced and then atomically renamed
+ * over the journal, so a crash never leaves a half-written journal behind.
+ * <p>
+ * Offsets must be acknowledged in increasing order, with every row before the
+ * offset already stored, or given up on and counted as failed.
+ */
+public class ImportJournal implements AutoCloseable {
+
+  private final Path journal;
+  private final Path input;
+  private final long inputSize;
+  private final long inputModified;
+  private final long resumeOffset;
+  private final Disposable timer;
+
+  private volatile long acknowledged;
+  private long persisted;
+  private boolean completed;
+
+  private ImportJournal(Path journal, Path input, long resumeOffset, Duration interval)
+      throws IOException {
+    this.journal = journal;
+    this.input = input;
+    this.inputSize = Files.size(input);
+    this.inputModified = Files.getLastModifiedTime(input).toMillis();
+    this.resumeOffset = resumeOffset;
+    this.acknowledged = resumeOffset;
+    this.persisted = resumeOffset;
+    this.timer = Flux.interval(interval, interval, Schedulers.boundedElastic())
+      .subscribe(
+        tick -> checkpoint(),
+        error -> System.err.println("Stopped writing import checkpoints: " + error));
+  }
+
+  /**
+   * Opens the journal for the given input file. An existing journal is only
+   * honoured if it was written for the same input file, unchanged since.
+   */
+  public static ImportJournal open(Path journal, Path input, Duration interval) throws IOException {
+    long resumeOffset = 0;
+
+    if (Files.exists(journal)) {
+      Properties stored = new Properties();
+      try (InputStream in = Files.newInputStream(journal)) {
+        stored.load(in);
+      }
+      boolean sameInput =
+        String.valueOf(Files.size(input)).equals(stored.getProperty("size"))
+          && String.valueOf(Files.getLastModifiedTime(input).toMillis()).equals(stored.getProperty("modified"));
+      if (sameInput) {
+        resumeOffset = Long.parseLong(stored.getProperty("offset", "0"));
+      }
+    }
+    return new ImportJournal(journal, input, resumeOffset, interval);
+  }
+
+  /**
+   * The offset the import should start reading from.
+   */
+  public long resumeOffset() {
+    return resumeOffset;
+  }
+
+  /**
+   * Records that every row before the given offset has been stored.
+   */
+  public void acknowledge(long offset) {
+    acknowledged = offset;
+  }
+
+  /**
+   * Writes the latest acknowledged offset, if it moved since the last write.
+   */
+  public synchronized void checkpoint() {
+    long offset = acknowledged;
+    if (completed || offset == persisted) {
+      return;
+    }
+
+    Properties stored = new Properties();
+    stored.setProperty("input", input.toString());
+    stored.setProperty("size", String.valueOf(inputSize));
+    stored.setProperty("modified", String.valueOf(inputModified));
+    stored.setProperty("offset", String.valueOf(offset));
+
+    Path temp = journal.resolveSibling(journal.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      OutputStream out = Channels.newOutputStream(channel);
+      stored.store(out, "import checkpoint");
+      out.flush();
+      channel.force(true);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    try {
+      Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    persisted = offset;
+  }
+
+  /**
+   * Marks the import as finished and removes the journal, so the next run
+   * starts from the beginning again.
+   */
+  public synchronized void complete() throws IOException {
+    timer.dispose();
+    completed = true;
+    Files.deleteIfExists(journal);
+  }
+
+  /**
+   * Stops the timer and writes a final checkpoint, unless the import completed.
+   */
+  @Override
+  public void close() {
+    timer.dispose();
+    checkpoint();
+  }
+}
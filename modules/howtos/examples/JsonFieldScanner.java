@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds the values of top-level fields in a serialized JSON object without
+ * decoding the rest of the document.
+ * <p>
+ * Values are returned as ranges into the original bytes, packed into a long
+ * as {@code start << 32 | end}, or {@link #MISSING} if the field is absent.
+ * Field names are compared byte for byte, so names written with escape
+ * sequences in the document are not matched.
+ */
+public final class JsonFieldScanner {
+
+  public static final long MISSING = -1;
+
+  private JsonFieldScanner() { }
+
+  public static byte[] name(String field) {
+    return field.getBytes(StandardCharsets.UTF_8);
+  }
+
+  public static int start(long range) {
+    return (int) (range >>> 32);
+  }
+
+  public static int end(long range) {
+    return (int) range;
+  }
+
+  /**
+   * Scans the object in {@code json[from, to)} once, and stores the value
+   * range of each of the given field names in the matching slot of
+   * {@code ranges}.
+   *
+   * @return the offset of the object's opening brace.
+   * @throws IllegalArgumentException if the input is not a JSON object.
+   */
+  public static int scan(byte[] json, int from, int to, byte[][] names, long[] ranges) {
+    Arrays.fill(ranges, MISSING);
+
+    int pos = skipWhitespace(json, from, to);
+    if (pos >= to || json[pos] != '{') {
+      throw malformed(pos);
+    }
+    int objectStart = pos;
+    pos = skipWhitespace(json, pos + 1, to);
+    if (pos < to && json[pos] == '}') {
+      return objectStart;
+    }
+
+    while (pos < to) {
+      if (json[pos] != '"') {
+        throw malformed(pos);
+      }
+      int keyStart = pos + 1;
+      int keyEnd = skipString(json, pos, to) - 1;
+
+      pos = skipWhitespace(json, keyEnd + 1, to);
+      if (pos >= to || json[pos] != ':') {
+        throw malformed(pos);
+      }
+      int valueStart = skipWhitespace(json, pos + 1, to);
+      int valueEnd = skipValue(json, valueStart, to);
+
+      for (int i = 0; i < names.length; i++) {
+        if (ranges[i] == MISSING && matches(json, keyStart, keyEnd, names[i])) {
+          ranges[i] = ((long) valueStart << 32) | valueEnd;
+        }
+      }
+
+      pos = skipWhitespace(json, valueEnd, to);
+      if (pos < to && json[pos] == ',') {
+        pos = skipWhitespace(json, pos + 1, to);
+      }
+      else if (pos < to && json[pos] == '}') {
+        return objectStart;
+      }
+      else {
+        throw malformed(pos);
+      }
+    }
+    throw malformed(pos);
+  }
+
+  /**
+   * Returns true if the object starting at {@code objectStart} has no fields.
+   */
+  public static boolean isEmptyObject(byte[] json, int objectStart, int to) {
+    int pos = skipWhitespace(json, objectStart + 1, to);
+    return pos < to && json[pos] == '}';
+  }
+
+  /**
+   * Renders a value the way {@code String.valueOf} renders its decoded form:
+   * strings are unescaped, everything else is returned as written.
+   */
+  public static String valueAsString(byte[] json, long range) {
+    int start = start(range);
+    int end = end(range);
+    if (json[start] != '"') {
+      return new String(json, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // fast path for the common case of a string without escapes
+    int close = end - 1;
+    boolean escaped = false;
+    for (int i = start + 1; i < close; i++) {
+      if (json[i] == '\\') {
+        escaped = true;
+        break;
+      }
+    }
+    if (!escaped) {
+      return new String(json, start + 1, close - start - 1, StandardCharsets.UTF_8);
+    }
+    return unescape(new String(json, start + 1, close - start - 1, StandardCharsets.UTF_8));
+  }
+
+  static int skipWhitespace(byte[] json, int pos, int to) {
+    while (pos < to) {
+      byte b = json[pos];
+      if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+        break;
+      }
+      pos++;
+    }
+    return pos;
+  }
+
+  // returns the offset just past the closing quote of the string at pos
+  static int skipString(byte[] json, int pos, int to) {
+    for (int i = pos + 1; i < to; i++) {
+      byte b = json[i];
+      if (b == '\\') {
+        i++;
+      }
+      else if (b == '"') {
+        return i + 1;
+      }
+    }
+    throw malformed(pos);
+  }
+
+  // returns the offset just past the value at pos
+  static int skipValue(byte[] json, int pos, int to) {
+    if (pos >= to) {
+      throw malformed(pos);
+    }
+    byte first = json[pos];
+    if (first == '"') {
+      return skipString(json, pos, to);
+    }
+    if (first == '{' || first == '[') {
+      int depth = 0;
+      for (int i = pos; i < to; i++) {
+        byte b = json[i];
+        if (b == '"') {
+          i = skipString(json, i, to) - 1;
+        }
+        else if (b == '{' || b == '[') {
+          depth++;
+        }
+        else if ((b == '}' || b == ']') && --depth == 0) {
+          return i + 1;
+        }
+      }
+      throw malformed(pos);
+    }
+    int i = pos;
+    while (i < to) {
+      byte b = json[i];
+      if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+        break;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean matches(byte[] json, int start, int end, byte[] name) {
+    if (end - start != name.length) {
+      return false;
+    }
+    for (int i = 0; i < name.length; i++) {
+      if (json[start + i] != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String unescape(String raw) {
+    StringBuilder out = new StringBuilder(raw.length());
+    for (int i = 0; i < raw.length(); i++) {
+      char c = raw.charAt(i);
+      if (c != '\\' || i + 1 >= raw.length()) {
+        out.append(c);
+        continue;
+      }
+      char next = raw.charAt(++i);
+      switch (next) {
+        case 'b': out.append('\b'); break;
+        case 'f': out.append('\f'); break;
+        case 'n': out.append('\n'); break;
+        case 'r': out.append('\r'); break;
+        case 't': out.append('\t'); break;
+        case 'u':
+          out.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+          i += 4;
+          break;
+        default: out.append(next);
+      }
+    }
+    return out.toString();
+  }
+
+  private static IllegalArgumentException malformed(int pos) {
+    return new IllegalArgumentException("Malformed JSON object at offset " + pos);
+  }
+}
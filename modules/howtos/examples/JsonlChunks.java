@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Splits a JSON Lines file into newline-aligned chunks, each of which can be
+ * memory-mapped and parsed independently of the others.
+ */
+public class JsonlChunks {
+
+  // a single mapping is limited to 2GB, so keep chunks well below that
+  static final long MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+  static final long MIN_CHUNK_SIZE = 1024 * 1024;
+
+  public static class Chunk {
+    private final Path path;
+    private final long start;
+    private final long end;
+
+    Chunk(Path path, long start, long end) {
+      this.path = path;
+      this.start = start;
+      this.end = end;
+    }
+
+    public Path path() {
+      return path;
+    }
+
+    public long start() {
+      return start;
+    }
+
+    public long end() {
+      return end;
+    }
+
+    public long length() {
+      return end - start;
+    }
+
+    @Override
+    public String toString() {
+      return "Chunk{path=" + path + ", start=" + start + ", end=" + end + "}";
+    }
+  }
+
+  /**
+   * Picks a chunk size which gives every parser a few chunks to work on,
+   * so that a slow chunk at the end does not leave the other cores idle.
+   */
+  public static long chunkSizeFor(long fileSize, int parsers) {
+    long perParser = fileSize / (parsers * 4L);
+    return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, perParser));
+  }
+
+  /**
+   * Splits the file into chunks of roughly {@code targetSize} bytes. Every
+   * chunk boundary is moved forward to the start of the next line, so no
+   * line is ever split between two chunks.
+   */
+  public static List<Chunk> split(Path path, long targetSize) throws IOException {
+    return split(path, 0, targetSize);
+  }
+
+  /**
+   * Splits the file from the given offset onwards, which must be the start
+   * of a line.
+   */
+  public static List<Chunk> split(Path path, long from, long targetSize) throws IOException {
+    List<Chunk> chunks = new ArrayList<>();
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteBuffer probe = ByteBuffer.allocate(8192);
+
+      long start = from;
+      while (start < size) {
+        long end = Math.min(start + targetSize, size);
+        if (end < size) {
+          end = nextLineStart(channel, end, size, probe);
+        }
+        chunks.add(new Chunk(path, start, end));
+        start = end;
+      }
+    }
+    return chunks;
+  }
+
+  /**
+   * A line together with the file offset just past its end, which is where
+   * reading would resume once the line has been dealt with.
+   */
+  public static class Line {
+    private final byte[] bytes;
+    private final long end;
+
+    Line(byte[] bytes, long end) {
+      this.bytes = bytes;
+      this.end = end;
+    }
+
+    public byte[] bytes() {
+      return bytes;
+    }
+
+    public long end() {
+      return end;
+    }
+  }
+
+  /**
+   * Streams the lines of a chunk straight out of a read-only mapping of the
+   * file. Blank lines are skipped and a trailing {@code \r} is dropped.
+   */
+  public static Flux<byte[]> lines(Chunk chunk) {
+    return mapLines(chunk, (bytes, end) -> bytes);
+  }
+
+  /**
+   * Like {@link #lines(Chunk)}, but also reports where each line ends.
+   */
+  public static Flux<Line> linesWithEndOffsets(Chunk chunk) {
+    return mapLines(chunk, Line::new);
+  }
+
+  private interface LineMapper<T> {
+    T map(byte[] bytes, long end);
+  }
+
+  private static <T> Flux<T> mapLines(Chunk chunk, LineMapper<T> mapper) {
+    return Flux.using(
+      () -> FileChannel.open(chunk.path(), StandardOpenOption.READ),
+      channel -> {
+        // the mapping stays valid after the channel is closed
+        MappedByteBuffer mapped =
+          channel.map(FileChannel.MapMode.READ_ONLY, chunk.start(), chunk.length());
+
+        return Flux.<T, ByteBuffer>generate(
+          () -> mapped,
+          (view, sink) -> {
+            int limit = view.limit();
+            while (view.hasRemaining()) {
+              int start = view.position();
+              int eol = start;
+              while (eol < limit && view.get(eol) != '\n') {
+                eol++;
+              }
+              int end = (eol > start && view.get(eol - 1) == '\r') ? eol - 1 : eol;
+
+              byte[] line = new byte[end - start];
+              view.get(line);
+              view.position(Math.min(eol + 1, limit));
+
+              if (line.length > 0) {
+                sink.next(mapper.map(line, chunk.start() + view.position()));
+                return view;
+              }
+            }
+            sink.complete();
+            return view;
+          });
+      },
+      channel -> {
+        try { channel.close(); }
+        catch (IOException e) { throw new RuntimeException(e); }
+      });
+  }
+
+  // returns the offset just past the next newline at or after pos
+  private static long nextLineStart(FileChannel channel, long pos, long size, ByteBuffer probe)
+      throws IOException {
+    while (pos < size) {
+      probe.clear();
+      int read = channel.read(probe, pos);
+      if (read <= 0) {
+        break;
+      }
+      for (int i = 0; i < read; i++) {
+        if (probe.get(i) == '\n') {
+          return pos + i + 1;
+        }
+      }
+      pos += read;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Drops superseded versions of the same key from a stream of writes.
+ * <p>
+ * Items are collected into windows of at most {@code maxSize} items or
+ * {@code maxWait}, whichever comes first. Within a window only the last
+ * item for each key is passed on, in the order each key was first seen.
+ * Later windows are not compared with earlier ones, so a key can still be
+ * written once per window.
+ * <p>
+ * Use it with {@code Flux.transform} ahead of the writes. Last write wins
+ * only holds if the writes for one key also complete in order: with a plain
+ * {@code flatMap}, the write from one window can still be in flight when
+ * the next window's write for the same key overtakes it. Serialize the
+ * writes per key, for example with {@code Import.upsertInKeyOrder}.
+ */
+public class KeyCoalescer<T> implements Function<Flux<T>, Flux<T>> {
+
+  private final Function<T, String> key;
+  private final int maxSize;
+  private final Duration maxWait;
+  private final LongAdder coalesced = new LongAdder();
+
+  public KeyCoalescer(Function<T, String> key, int maxSize, Duration maxWait) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+    this.key = key;
+    this.maxSize = maxSize;
+    this.maxWait = maxWait;
+  }
+
+  @Override
+  public Flux<T> apply(Flux<T> items) {
+    return items
+      // fair backpressure: a window which times out while the consumer is
+      // still busy waits for its request instead of failing with an overflow
+      .bufferTimeout(maxSize, maxWait, true)
+      // one window at a time, so a slow consumer holds back the windows
+      // instead of a queue of them
+      .concatMapIterable(this::latestPerKey, 1);
+  }
+
+  /**
+   * The number of items dropped because a later one had the same key.
+   */
+  public long coalesced() {
+    return coalesced.sum();
+  }
+
+  public void reset() {
+    coalesced.reset();
+  }
+
+  private Iterable<T> latestPerKey(List<T> window) {
+    Map<String, T> latest = new LinkedHashMap<>(window.size() * 2);
+    for (T item : window) {
+      latest.put(key.apply(item), item);
+    }
+    coalesced.add(window.size() - latest.size());
+    return latest.values();
+  }
+
+  @Override
+  public String toString() {
+    return "KeyCoalescer{maxSize=" + maxSize + ", maxWait=" + maxWait + ", coalesced=" + coalesced() + "}";
+  }
+
+  public static void main(String... args) {
+    KeyCoalescer<String> coalescer = new KeyCoalescer<>(Function.identity(), 100, Duration.ofMillis(1));
+
+    // 10 keys written over and over, to a consumer slower than the window
+    // timeout, which keeps windows closing while it is still busy
+    long received = Flux.range(0, 1_000)
+      .delayElements(Duration.ofMillis(1))
+      .map(i -> "key_" + (i % 10))
+      .transform(coalescer)
+      .concatMap(item -> Mono.delay(Duration.ofMillis(2)).thenReturn(item), 1)
+      .count()
+      .block();
+
+    System.out.println("Slow consumer received " + received + " items: " + coalescer);
+  }
+}
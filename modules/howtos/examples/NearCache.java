@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.couchbase.client.java.kv.GetOptions.getOptions;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.kv.ExistsResult;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.MutationResult;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * A read-through cache in front of {@link Collection#get}, for documents
+ * which are read far more often than they change.
+ * <p>
+ * Entries are evicted by size (Caffeine's W-TinyLFU) and expire no later
+ * than the document itself does on the server, or after {@code maxTtl}.
+ * Mutations made through this class invalidate the local entry. Changes
+ * made elsewhere are picked up when an entry expires, or sooner with
+ * revalidation: an entry older than {@code revalidateAfter} is checked
+ * with a cheap {@code exists} call, and fetched again only if its CAS
+ * has changed.
+ */
+public class NearCache {
+
+  private final Collection collection;
+  private final Duration maxTtl;
+  private final long revalidateAfterNanos;
+  private final Cache<String, Entry> cache;
+
+  private final LongAdder revalidations = new LongAdder();
+  private final LongAdder stale = new LongAdder();
+
+  /**
+   * @param revalidateAfter how old an entry may get before its CAS is
+   *   checked again, or {@code Duration.ZERO} to never check.
+   */
+  public NearCache(Collection collection, long maxEntries, Duration maxTtl, Duration revalidateAfter) {
+    this.collection = collection;
+    this.maxTtl = maxTtl;
+    this.revalidateAfterNanos = revalidateAfter.toNanos();
+    this.cache = Caffeine.newBuilder()
+      .maximumSize(maxEntries)
+      .expireAfter(new DocumentExpiry())
+      .recordStats()
+      .build();
+  }
+
+  public GetResult get(String id) {
+    Entry entry = cache.get(id, this::load);
+    if (revalidateAfterNanos > 0 && System.nanoTime() - entry.checkedNanos > revalidateAfterNanos) {
+      entry = revalidate(id, entry);
+    }
+    return entry.result;
+  }
+
+  public MutationResult upsert(String id, Object content) {
+    try {
+      return collection.upsert(id, content);
+    }
+    finally {
+      cache.invalidate(id);
+    }
+  }
+
+  public MutationResult replace(String id, Object content) {
+    try {
+      return collection.replace(id, content);
+    }
+    finally {
+      cache.invalidate(id);
+    }
+  }
+
+  public MutationResult remove(String id) {
+    try {
+      return collection.remove(id);
+    }
+    finally {
+      cache.invalidate(id);
+    }
+  }
+
+  /**
+   * Drops the entry, for example when another process reports a change.
+   */
+  public void invalidate(String id) {
+    cache.invalidate(id);
+  }
+
+  /**
+   * Hits, misses, loads and evictions, as counted by Caffeine.
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  public long revalidations() {
+    return revalidations.sum();
+  }
+
+  /**
+   * The number of revalidations which found the document had changed.
+   */
+  public long stale() {
+    return stale.sum();
+  }
+
+  @Override
+  public String toString() {
+    CacheStats stats = stats();
+    return String.format(
+      "NearCache{size=%d, hits=%d, misses=%d, hitRate=%.1f%%, evictions=%d, revalidations=%d, stale=%d}",
+      cache.estimatedSize(), stats.hitCount(), stats.missCount(), 100 * stats.hitRate(),
+      stats.evictionCount(), revalidations(), stale());
+  }
+
+  private Entry load(String id) {
+    return new Entry(collection.get(id, getOptions().withExpiry(true)));
+  }
+
+  private Entry revalidate(String id, Entry entry) {
+    revalidations.increment();
+    ExistsResult exists = collection.exists(id);
+    if (exists.exists() && exists.cas() == entry.result.cas()) {
+      entry.checkedNanos = System.nanoTime();
+      return entry;
+    }
+
+    stale.increment();
+    cache.invalidate(id);
+    return cache.get(id, this::load);
+  }
+
+  private static final class Entry {
+    private final GetResult result;
+    private volatile long checkedNanos = System.nanoTime();
+
+    Entry(GetResult result) {
+      this.result = result;
+    }
+  }
+
+  // the document's own expiry, capped at maxTtl
+  private final class DocumentExpiry implements Expiry<String, Entry> {
+    @Override
+    public long expireAfterCreate(String id, Entry entry, long currentTime) {
+      long ttl = maxTtl.toNanos();
+      Instant expiry = entry.result.expiryTime().orElse(null);
+      if (expiry != null) {
+        ttl = Math.min(ttl, Math.max(0, Duration.between(Instant.now(), expiry).toNanos()));
+      }
+      return ttl;
+    }
+
+    @Override
+    public long expireAfterUpdate(String id, Entry entry, long currentTime, long currentDuration) {
+      return expireAfterCreate(id, entry, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(String id, Entry entry, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::near-cache[]
+    NearCache airlines = new NearCache(collection, 10_000, Duration.ofMinutes(10), Duration.ofSeconds(30));
+
+    for (int i = 0; i < 100; i++) {
+      GetResult airline = airlines.get("airline_10");
+      if (i == 0) {
+        System.out.println(airline.contentAsObject().getString("name"));
+      }
+    }
+    System.out.println(airlines);
+    // end::near-cache[]
+
+    cluster.disconnect();
+  }
+}
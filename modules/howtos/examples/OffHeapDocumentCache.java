@@ -0,0 +1,563 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import static com.couchbase.client.java.kv.GetOptions.getOptions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.codec.RawJsonTranscoder;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.GetResult;
+
+/**
+ * A read-through document cache which keeps the raw JSON bytes and CAS of
+ * each document outside the Java heap, so a large cache adds almost
+ * nothing to garbage collection work. Documents are decoded only when
+ * they are read.
+ * <p>
+ * Memory comes in 1MB slabs, either direct buffers or regions of a memory
+ * mapped file, up to the capacity given. Each slab is cut into slots of one
+ * size class (powers of two from 64 bytes), and a document is stored in
+ * the smallest class it fits. When a class runs out of slots and no more
+ * slabs may be allocated, it evicts with the CLOCK algorithm: documents read
+ * since the hand last passed get a second chance. A class which has no
+ * slab at all by then takes one from another class. Documents bigger than
+ * a slab are not cached.
+ * <p>
+ * Direct buffers count against {@code -XX:MaxDirectMemorySize}, so raise it
+ * for large caches, or use {@link Storage#MAPPED}.
+ */
+public class OffHeapDocumentCache implements AutoCloseable {
+
+  public enum Storage { DIRECT, MAPPED }
+
+  static final int SLAB_SIZE = 1024 * 1024;
+  static final int MIN_SLOT_SIZE = 64;
+
+  // each slot starts with the CAS and the content length
+  static final int HEADER_SIZE = Long.BYTES + Integer.BYTES;
+
+  private final Collection collection;
+  private final Storage storage;
+  private final Path file;
+  private final FileChannel channel;
+  private final int maxSlabs;
+  private final AtomicInteger slabs = new AtomicInteger();
+  private final SizeClass[] classes;
+
+  // where each document is: size class in the high bits, slot in the low ones
+  private final ConcurrentMap<String, Long> index = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder tooLarge = new LongAdder();
+
+  public OffHeapDocumentCache(Collection collection, long capacityBytes, Storage storage) throws IOException {
+    this.collection = collection;
+    this.storage = storage;
+    this.maxSlabs = (int) Math.min(Integer.MAX_VALUE, capacityBytes / SLAB_SIZE);
+
+    if (storage == Storage.MAPPED) {
+      file = Files.createTempFile("document-cache", ".slabs");
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+        StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    else {
+      file = null;
+      channel = null;
+    }
+
+    int count = Integer.numberOfTrailingZeros(SLAB_SIZE / MIN_SLOT_SIZE) + 1;
+    classes = new SizeClass[count];
+    for (int i = 0; i < count; i++) {
+      classes[i] = new SizeClass(i, MIN_SLOT_SIZE << i);
+    }
+  }
+
+  /**
+   * Returns the cached document, or fetches and caches it on a miss.
+   */
+  public CachedDocument get(String id) {
+    CachedDocument cached = getIfPresent(id);
+    if (cached != null) {
+      hits.increment();
+      return cached;
+    }
+
+    misses.increment();
+    GetResult result = collection.get(id, getOptions().transcoder(RawJsonTranscoder.INSTANCE));
+    byte[] content = result.contentAs(byte[].class);
+    put(id, content, result.cas());
+    return new CachedDocument(id, content, result.cas());
+  }
+
+  public CachedDocument getIfPresent(String id) {
+    Long handle = index.get(id);
+    if (handle == null) {
+      return null;
+    }
+    return classes[classOf(handle)].read(id, slotOf(handle));
+  }
+
+  /**
+   * Stores the document, replacing any previous version with a lower CAS.
+   * Use this after local mutations, with the CAS they returned, to keep the
+   * cache current; a slower read of an older version cannot overwrite it.
+   */
+  public void put(String id, byte[] content, long cas) {
+    int size = HEADER_SIZE + content.length;
+    if (size > SLAB_SIZE) {
+      tooLarge.increment();
+      invalidate(id);
+      return;
+    }
+
+    int sizeClass = classFor(size);
+    int slot = classes[sizeClass].store(id, content, cas);
+    if (slot < 0) {
+      invalidate(id);
+      return;
+    }
+    long stored = handle(sizeClass, slot);
+
+    while (true) {
+      Long current = index.get(id);
+      if (current == null) {
+        if (index.putIfAbsent(id, stored) == null) {
+          return;
+        }
+      }
+      else if (!classes[classOf(current)].isOlder(id, slotOf(current), cas)) {
+        // the cached version is as new or newer, so the copy just stored loses
+        classes[sizeClass].free(id, slot);
+        return;
+      }
+      else if (index.replace(id, current, stored)) {
+        classes[classOf(current)].free(id, slotOf(current));
+        return;
+      }
+      // another put or invalidate got in between, look again
+    }
+  }
+
+  public void invalidate(String id) {
+    Long handle = index.remove(id);
+    if (handle != null) {
+      classes[classOf(handle)].free(id, slotOf(handle));
+    }
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  public long evictions() {
+    return evictions.sum();
+  }
+
+  public int size() {
+    return index.size();
+  }
+
+  /**
+   * Off-heap memory in use, in whole slabs.
+   */
+  public long reservedBytes() {
+    return (long) slabs.get() * SLAB_SIZE;
+  }
+
+  @Override
+  public String toString() {
+    long total = hits() + misses();
+    return String.format(
+      "OffHeapDocumentCache{storage=%s, documents=%d, reserved=%.1fMB, hits=%d, misses=%d, hitRate=%.1f%%, "
+        + "evictions=%d, tooLarge=%d}",
+      storage, size(), reservedBytes() / (1024.0 * 1024), hits(), misses(),
+      total == 0 ? 0 : 100.0 * hits() / total, evictions(), tooLarge.sum());
+  }
+
+  @Override
+  public void close() throws IOException {
+    index.clear();
+    for (SizeClass sizeClass : classes) {
+      sizeClass.clear();
+    }
+    if (channel != null) {
+      channel.close();
+    }
+  }
+
+  private static int classFor(int size) {
+    int slotSize = Math.max(MIN_SLOT_SIZE, Integer.highestOneBit(size - 1) << 1);
+    return Integer.numberOfTrailingZeros(slotSize / MIN_SLOT_SIZE);
+  }
+
+  private static long handle(int sizeClass, int slot) {
+    return (long) sizeClass << 32 | slot;
+  }
+
+  private static int classOf(long handle) {
+    return (int) (handle >>> 32);
+  }
+
+  private static int slotOf(long handle) {
+    return (int) handle;
+  }
+
+  // takes a slab from the shared budget, or returns null once it is used up
+  private ByteBuffer allocateSlab() {
+    int number;
+    do {
+      number = slabs.get();
+      if (number >= maxSlabs) {
+        return null;
+      }
+    } while (!slabs.compareAndSet(number, number + 1));
+
+    if (storage == Storage.DIRECT) {
+      return ByteBuffer.allocateDirect(SLAB_SIZE);
+    }
+    try {
+      return channel.map(FileChannel.MapMode.READ_WRITE, (long) number * SLAB_SIZE, SLAB_SIZE);
+    }
+    catch (IOException e) {
+      slabs.decrementAndGet();
+      throw new IllegalStateException("Could not map a slab of " + file, e);
+    }
+  }
+
+  // Takes the newest slab of another size class, so a class which got no
+  // memory before the budget ran out can still hold documents. Only called
+  // with the thief's lock held; the others are only tried, never waited for.
+  private ByteBuffer stealSlab(SizeClass thief) {
+    for (SizeClass victim : classes) {
+      if (victim != thief) {
+        ByteBuffer slab = victim.surrenderSlab();
+        if (slab != null) {
+          return slab;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The slots of one size. Reads share the lock, stores and evictions take
+   * it exclusively.
+   */
+  private final class SizeClass {
+    private final int number;
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final StampedLock lock = new StampedLock();
+
+    // all guarded by lock
+    private final List<ByteBuffer> slabBuffers = new ArrayList<>();
+    private String[] owners = new String[0];
+    private byte[] referenced = new byte[0];
+    private int[] free = new int[0];
+    private int freeCount;
+    private int hand;
+
+    SizeClass(int number, int slotSize) {
+      this.number = number;
+      this.slotSize = slotSize;
+      this.slotsPerSlab = SLAB_SIZE / slotSize;
+    }
+
+    CachedDocument read(String id, int slot) {
+      long stamp = lock.readLock();
+      try {
+        // the slot may have been evicted and reused since the index was read
+        if (slot >= owners.length || !id.equals(owners[slot])) {
+          return null;
+        }
+        ByteBuffer slab = slabBuffers.get(slot / slotsPerSlab);
+        int offset = (slot % slotsPerSlab) * slotSize;
+
+        long cas = slab.getLong(offset);
+        byte[] content = new byte[slab.getInt(offset + Long.BYTES)];
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.get(content);
+
+        // a racy write, but every reader writes the same value
+        referenced[slot] = 1;
+        return new CachedDocument(id, content, cas);
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    /**
+     * Whether the slot holds a version of the document older than the CAS,
+     * or no longer holds the document at all.
+     */
+    boolean isOlder(String id, int slot, long cas) {
+      long stamp = lock.readLock();
+      try {
+        if (slot >= owners.length || !id.equals(owners[slot])) {
+          return true;
+        }
+        long stored = slabBuffers.get(slot / slotsPerSlab).getLong((slot % slotsPerSlab) * slotSize);
+        return Long.compareUnsigned(stored, cas) < 0;
+      }
+      finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    /**
+     * @return the slot the document went to, or -1 if there was no room.
+     */
+    int store(String id, byte[] content, long cas) {
+      long stamp = lock.writeLock();
+      try {
+        int slot = allocate();
+        if (slot < 0) {
+          return -1;
+        }
+        ByteBuffer slab = slabBuffers.get(slot / slotsPerSlab);
+        int offset = (slot % slotsPerSlab) * slotSize;
+
+        slab.putLong(offset, cas);
+        slab.putInt(offset + Long.BYTES, content.length);
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + HEADER_SIZE);
+        view.put(content);
+
+        owners[slot] = id;
+        referenced[slot] = 0;
+        return slot;
+      }
+      finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void free(String id, int slot) {
+      long stamp = lock.writeLock();
+      try {
+        if (slot < owners.length && id.equals(owners[slot])) {
+          owners[slot] = null;
+          free[freeCount++] = slot;
+        }
+      }
+      finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void clear() {
+      long stamp = lock.writeLock();
+      try {
+        slabBuffers.clear();
+        owners = new String[0];
+        referenced = new byte[0];
+        free = new int[0];
+        freeCount = 0;
+        hand = 0;
+      }
+      finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    // called with the write lock held
+    private int allocate() {
+      if (freeCount > 0) {
+        return free[--freeCount];
+      }
+
+      ByteBuffer slab = allocateSlab();
+      if (slab != null) {
+        int first = owners.length;
+        int total = first + slotsPerSlab;
+        slabBuffers.add(slab);
+        owners = Arrays.copyOf(owners, total);
+        referenced = Arrays.copyOf(referenced, total);
+        free = Arrays.copyOf(free, total);
+        for (int slot = total - 1; slot > first; slot--) {
+          free[freeCount++] = slot;
+        }
+        return first;
+      }
+
+      if (owners.length == 0) {
+        slab = stealSlab(this);
+        if (slab != null) {
+          slabBuffers.add(slab);
+          owners = new String[slotsPerSlab];
+          referenced = new byte[slotsPerSlab];
+          free = new int[slotsPerSlab];
+          for (int slot = slotsPerSlab - 1; slot > 0; slot--) {
+            free[freeCount++] = slot;
+          }
+          return 0;
+        }
+      }
+
+      return evict();
+    }
+
+    /**
+     * Drops the documents in the newest slab and hands it over to another
+     * class. Gives up rather than wait if the lock is taken, and always
+     * keeps one slab.
+     */
+    ByteBuffer surrenderSlab() {
+      long stamp = lock.tryWriteLock();
+      if (stamp == 0) {
+        return null;
+      }
+      try {
+        if (slabBuffers.size() < 2) {
+          return null;
+        }
+        int first = owners.length - slotsPerSlab;
+        for (int slot = first; slot < owners.length; slot++) {
+          if (owners[slot] != null) {
+            index.remove(owners[slot], handle(number, slot));
+            evictions.increment();
+          }
+        }
+        owners = Arrays.copyOf(owners, first);
+        referenced = Arrays.copyOf(referenced, first);
+
+        int kept = 0;
+        for (int i = 0; i < freeCount; i++) {
+          if (free[i] < first) {
+            free[kept++] = free[i];
+          }
+        }
+        freeCount = kept;
+        free = Arrays.copyOf(free, first);
+        if (hand >= first) {
+          hand = 0;
+        }
+        return slabBuffers.remove(slabBuffers.size() - 1);
+      }
+      finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    // CLOCK: clear the referenced flags until the hand finds a slot which
+    // has not been read since its last pass
+    private int evict() {
+      int total = owners.length;
+      for (int step = 0; step < 2 * total; step++) {
+        int slot = hand;
+        hand = (hand + 1) % total;
+
+        if (owners[slot] == null) {
+          return slot;
+        }
+        if (referenced[slot] != 0) {
+          referenced[slot] = 0;
+          continue;
+        }
+        index.remove(owners[slot], handle(number, slot));
+        owners[slot] = null;
+        evictions.increment();
+        return slot;
+      }
+      // this class never got a slab before the budget ran out
+      return -1;
+    }
+  }
+
+  /**
+   * A copy of a cached document, taken from off-heap memory when read.
+   */
+  public static class CachedDocument {
+    private final String id;
+    private final byte[] content;
+    private final long cas;
+
+    CachedDocument(String id, byte[] content, long cas) {
+      this.id = id;
+      this.content = content;
+      this.cas = cas;
+    }
+
+    public String id() {
+      return id;
+    }
+
+    public long cas() {
+      return cas;
+    }
+
+    public byte[] contentAsBytes() {
+      return content;
+    }
+
+    public JsonObject contentAsObject() {
+      return JsonObject.fromJson(content);
+    }
+
+    @Override
+    public String toString() {
+      return "CachedDocument{id='" + id + "', cas=" + cas + ", content="
+        + new String(content, StandardCharsets.UTF_8) + "}";
+    }
+  }
+
+  public static void main(String... args) throws Exception {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::off-heap-cache[]
+    try (OffHeapDocumentCache cache =
+           new OffHeapDocumentCache(collection, 64 * 1024 * 1024, OffHeapDocumentCache.Storage.DIRECT)) {
+
+      // the first read fetches the document, the second one comes from the cache
+      for (int i = 0; i < 2; i++) {
+        CachedDocument airline = cache.get("airline_10");
+        System.out.println(airline.contentAsObject().getString("name"));
+      }
+      System.out.println(cache);
+    }
+    // end::off-heap-cache[]
+
+    cluster.disconnect();
+  }
+}
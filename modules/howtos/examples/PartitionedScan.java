@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Comparator;
+import java.util.List;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Scans a collection as several key ranges at once, balanced by sampling
+ * the keys first, and returns the results either as fast as they come or
+ * in key order.
+ * <p>
+ * Each range is its own scan with its own backpressure, so a slow consumer
+ * slows every partition down instead of buffering them. Ordered output has
+ * to sort each partition in memory, because the server streams a range
+ * vbucket by vbucket rather than in key order; the ranges themselves don't
+ * overlap, so the sorted partitions only need to be emitted one after
+ * another. While one partition is emitted, at most {@code orderedLookahead}
+ * of the following ones are scanned and sorted, so an ordered scan holds up
+ * to {@code orderedLookahead + 1} partitions on the heap. Use more, smaller
+ * partitions for ordered scans of large collections.
+ */
+public class PartitionedScan {
+
+  public enum Order { UNORDERED, BY_KEY }
+
+  private static final Comparator<ScanResult> BY_ID =
+    Comparator.comparing(ScanResult::id, ScanPartitions.KEY_ORDER);
+
+  private final ReactiveCollection collection;
+  private final int concurrency;
+  private final int orderedLookahead;
+
+  public PartitionedScan(Collection collection, int concurrency) {
+    this(collection, concurrency, Math.min(concurrency, 2));
+  }
+
+  /**
+   * @param orderedLookahead how many partitions an ordered scan sorts ahead
+   *   of the one it is emitting.
+   */
+  public PartitionedScan(Collection collection, int concurrency, int orderedLookahead) {
+    if (concurrency < 1 || orderedLookahead < 1) {
+      throw new IllegalArgumentException("concurrency and orderedLookahead must be at least 1");
+    }
+    this.collection = collection.reactive();
+    this.concurrency = concurrency;
+    this.orderedLookahead = orderedLookahead;
+  }
+
+  /**
+   * Samples the keys, splits them into {@code partitions} ranges and scans
+   * them, at most {@code concurrency} at a time.
+   */
+  public Flux<ScanResult> scan(int partitions, ScanOptions options, Order order) {
+    // a few hundred samples per partition keeps their sizes within a few percent
+    return ScanPartitions.sampled(collection, partitions, 256L * partitions)
+      .flatMapMany(ranges -> scan(ranges, options, order));
+  }
+
+  public Flux<ScanResult> scan(List<ScanType> ranges, ScanOptions options, Order order) {
+    if (order == Order.UNORDERED) {
+      return Flux.fromIterable(ranges)
+        .flatMap(range -> collection.scan(range, options), concurrency);
+    }
+
+    // the ranges are in key order, and flatMapSequential keeps that order
+    // while sorting the next few of them; taking one sorted partition at a
+    // time downstream stops it from running further ahead
+    return Flux.fromIterable(ranges)
+      .flatMapSequential(range -> collection.scan(range, options).collectSortedList(BY_ID),
+        orderedLookahead, 1)
+      .concatMapIterable(results -> results, 1);
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::partitioned-scan[]
+    int cores = Runtime.getRuntime().availableProcessors();
+    PartitionedScan scanner = new PartitionedScan(collection, cores);
+    ScanOptions idsOnly = ScanOptions.scanOptions().idsOnly(true);
+
+    long start = System.nanoTime();
+    long count = collection.reactive().scan(ScanType.rangeScan(null, null), idsOnly).count().block();
+    System.out.printf("single scan: %d ids in %dms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+    start = System.nanoTime();
+    count = scanner.scan(4 * cores, idsOnly, Order.UNORDERED).count().block();
+    System.out.printf("unordered:   %d ids in %dms%n", count, (System.nanoTime() - start) / 1_000_000);
+
+    start = System.nanoTime();
+    // more partitions keep each sorted partition small
+    List<String> first = scanner.scan(16 * cores, idsOnly, Order.BY_KEY)
+      .map(ScanResult::id)
+      .take(5)
+      .collectList()
+      .block();
+    System.out.printf("ordered:     first ids %s in %dms%n", first, (System.nanoTime() - start) / 1_000_000);
+    // end::partitioned-scan[]
+
+    cluster.disconnect();
+  }
+}
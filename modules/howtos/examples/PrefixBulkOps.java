@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.couchbase.client.core.error.DocumentNotFoundException;
+import com.couchbase.client.core.error.TemporaryFailureException;
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.json.JsonObject;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+/**
+ * Removes or touches every document whose id starts with a prefix.
+ * <p>
+ * The ids come from a prefix scan with {@code idsOnly(true)}, so no document
+ * bodies are transferred, and are streamed straight into the mutations with
+ * at most {@code concurrency} in flight. The scan is only asked for more
+ * ids as mutations complete, so millions of keys never pile up in memory.
+ * An optional rate limit caps the operations per second, to keep a purge
+ * from crowding out the application's own traffic, and progress is printed
+ * by a {@link ProgressReporter} while the job runs.
+ * <p>
+ * A document which is already gone when its turn comes is counted as
+ * missing rather than failed; any other error is counted and the job carries
+ * on. Use {@link #count(String)} first to see how many ids a prefix matches.
+ */
+public class PrefixBulkOps {
+
+  // rate limited ids are released in batches at this interval
+  static final Duration TICK = Duration.ofMillis(100);
+
+  private final ReactiveCollection collection;
+  private final int concurrency;
+  private final int opsPerSecond;
+  private final Retry retry;
+
+  public PrefixBulkOps(Collection collection, int concurrency) {
+    this(collection.reactive(), concurrency, 0, null);
+  }
+
+  private PrefixBulkOps(ReactiveCollection collection, int concurrency, int opsPerSecond, Retry retry) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    this.collection = collection;
+    this.concurrency = concurrency;
+    this.opsPerSecond = opsPerSecond;
+    this.retry = retry;
+  }
+
+  /**
+   * Returns a copy which starts at most {@code opsPerSecond} operations per
+   * second, or any number if it is 0.
+   */
+  public PrefixBulkOps withRateLimit(int opsPerSecond) {
+    return new PrefixBulkOps(collection, concurrency, opsPerSecond, retry);
+  }
+
+  /**
+   * Returns a copy which retries each failed operation with the given
+   * strategy before counting it as failed.
+   */
+  public PrefixBulkOps withRetry(Retry retry) {
+    return new PrefixBulkOps(collection, concurrency, opsPerSecond, retry);
+  }
+
+  /**
+   * Counts the ids starting with the prefix without changing anything.
+   */
+  public Mono<Long> count(String prefix) {
+    return ids(prefix).count();
+  }
+
+  public Mono<Result> remove(String prefix) {
+    return run("remove " + prefix, ids(prefix), id -> collection.remove(id));
+  }
+
+  public Mono<Result> touch(String prefix, Duration expiry) {
+    return run("touch " + prefix, ids(prefix), id -> collection.touch(id, expiry));
+  }
+
+  private Flux<String> ids(String prefix) {
+    if (prefix == null || prefix.isEmpty()) {
+      // an empty prefix matches every document in the collection
+      throw new IllegalArgumentException("prefix must not be empty");
+    }
+    return collection.scan(ScanType.prefixScan(prefix), ScanOptions.scanOptions().idsOnly(true))
+      .map(ScanResult::id);
+  }
+
+  private Mono<Result> run(String name, Flux<String> ids, Function<String, Mono<?>> operation) {
+    return Mono.usingWhen(
+      Mono.fromCallable(() -> new ProgressReporter(name, Duration.ofSeconds(1))),
+      progress -> {
+        LongAdder missing = new LongAdder();
+        long start = System.nanoTime();
+        return rateLimited(ids)
+          .flatMap(id -> {
+              Mono<?> single = operation.apply(id);
+              if (retry != null) {
+                single = single.retryWhen(retry);
+              }
+              return progress.track(id, single)
+                .onErrorResume(error -> {
+                  if (error instanceof DocumentNotFoundException) {
+                    missing.increment();
+                  }
+                  return Mono.empty();
+                });
+            },
+            concurrency)
+          .then(Mono.fromCallable(() -> new Result(
+            progress.rows(), missing.sum(), progress.errors() - missing.sum(),
+            Duration.ofNanos(System.nanoTime() - start))));
+      },
+      progress -> Mono.fromRunnable(progress::close));
+  }
+
+  private Flux<String> rateLimited(Flux<String> ids) {
+    if (opsPerSecond <= 0) {
+      return ids;
+    }
+    // release a batch per tick, or single ids further apart for low rates
+    int perTick = Math.max(1, (int) (opsPerSecond * TICK.toNanos() / 1_000_000_000L));
+    Duration interval = Duration.ofNanos(1_000_000_000L * perTick / opsPerSecond);
+    return ids.buffer(perTick)
+      .delayElements(interval)
+      .concatMapIterable(Function.<List<String>>identity());
+  }
+
+  /**
+   * How many documents a bulk operation changed, found already gone, or
+   * failed on.
+   */
+  public static final class Result {
+    private final long succeeded;
+    private final long missing;
+    private final long failed;
+    private final Duration took;
+
+    Result(long succeeded, long missing, long failed, Duration took) {
+      this.succeeded = succeeded;
+      this.missing = missing;
+      this.failed = failed;
+      this.took = took;
+    }
+
+    public long succeeded() {
+      return succeeded;
+    }
+
+    public long missing() {
+      return missing;
+    }
+
+    public long failed() {
+      return failed;
+    }
+
+    public Duration took() {
+      return took;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Result{succeeded=%d, missing=%d, failed=%d, took=%dms}",
+        succeeded, missing, failed, took.toMillis());
+    }
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("_default").collection("_default");
+
+    Flux.range(0, 5_000)
+      .flatMap(i -> collection.reactive().upsert("alice::bulk::" + i, JsonObject.create().put("n", i)), 64)
+      .blockLast();
+
+    // tag::prefix-bulk-ops[]
+    PrefixBulkOps ops = new PrefixBulkOps(collection, 64)
+      .withRateLimit(10_000)
+      .withRetry(Retry.backoff(3, Duration.ofMillis(50)).filter(e -> e instanceof TemporaryFailureException));
+
+    System.out.println("Matching ids: " + ops.count("alice::bulk::").block());
+
+    // give every matching document a day to live
+    Result touched = ops.touch("alice::bulk::", Duration.ofDays(1)).block();
+    System.out.println("Touched: " + touched);
+
+    Result removed = ops.remove("alice::bulk::").block();
+    System.out.println("Removed: " + removed);
+    // end::prefix-bulk-ops[]
+
+    cluster.disconnect();
+  }
+}
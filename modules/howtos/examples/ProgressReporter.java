@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Aggregates the progress of a bulk job (rows, errors, bytes and latency)
+ * and prints a one-line summary from a background thread at a fixed
+ * interval, instead of printing every row on the calling threads.
+ * <p>
+ * Recording only touches striped counters and an HdrHistogram recorder, so
+ * it does not serialize the threads doing the work. Per-row output is
+ * available through a debug sampler which prints every n-th row.
+ */
+public class ProgressReporter implements AutoCloseable {
+
+  private final String name;
+  private final int sampleEvery;
+  private final ScheduledExecutorService timer;
+
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder bytes = new LongAdder();
+  private final Recorder latencies = new Recorder(3);
+
+  // guarded by this
+  private final Histogram totalLatencies = new Histogram(3);
+  private long startNanos = System.nanoTime();
+  private long lastReportNanos = startNanos;
+  private long lastReportRows;
+
+  /**
+   * @param interval how often to print progress, or {@link Duration#ZERO} to
+   *   only count, without a background thread, until {@link #summary()}.
+   * @param sampleEvery print every n-th row and every n-th error, or 0 to
+   *   never print individual rows.
+   */
+  public ProgressReporter(String name, Duration interval, int sampleEvery) {
+    this.name = name;
+    this.sampleEvery = sampleEvery;
+    if (interval.isZero()) {
+      this.timer = null;
+      return;
+    }
+    this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "progress-" + name);
+      thread.setDaemon(true);
+      return thread;
+    });
+    timer.scheduleAtFixedRate(this::report, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  public ProgressReporter(String name, Duration interval) {
+    this(name, interval, 0);
+  }
+
+  /**
+   * Times the given operation and records its outcome once it completes.
+   */
+  public <T> Mono<T> track(String key, Mono<T> operation) {
+    return Mono.defer(() -> {
+      long start = System.nanoTime();
+      return operation
+        .doOnSuccess(result -> {
+          recordSuccess(System.nanoTime() - start);
+          sample(key, result);
+        })
+        .doOnError(error -> recordError(key, error));
+    });
+  }
+
+  public void recordSuccess(long latencyNanos) {
+    rows.increment();
+    latencies.recordValue(Math.max(1, latencyNanos));
+  }
+
+  /**
+   * Records input read by the job, for the MB/s figure.
+   */
+  public void recordBytes(long size) {
+    bytes.add(size);
+  }
+
+  public void recordError(String key, Throwable error) {
+    errors.increment();
+    if (sampleEvery > 0 && errors.sum() % sampleEvery == 0) {
+      System.out.println(name + " error for " + key + ": " + error);
+    }
+  }
+
+  /**
+   * Prints the key and result if this row is picked by the debug sampler.
+   */
+  public void sample(String key, Object result) {
+    if (sampleEvery > 0 && rows.sum() % sampleEvery == 0) {
+      System.out.println(name + " sample " + key + ": " + result);
+    }
+  }
+
+  public long rows() {
+    return rows.sum();
+  }
+
+  public long errors() {
+    return errors.sum();
+  }
+
+  public long bytes() {
+    return bytes.sum();
+  }
+
+  /**
+   * Starts counting from zero again, for example between two phases of a job.
+   */
+  public synchronized void reset() {
+    rows.reset();
+    errors.reset();
+    bytes.reset();
+    latencies.reset();
+    totalLatencies.reset();
+    startNanos = System.nanoTime();
+    lastReportNanos = startNanos;
+    lastReportRows = 0;
+  }
+
+  /**
+   * Returns the totals since the start (or the last reset).
+   */
+  public synchronized String summary() {
+    totalLatencies.add(latencies.getIntervalHistogram());
+    double seconds = Math.max(1, System.nanoTime() - startNanos) / 1_000_000_000.0;
+    long rowCount = rows.sum();
+    long byteCount = bytes.sum();
+    return String.format("%s: %d rows (%.0f rows/s), %d errors, %.2f MB (%.2f MB/s) in %.1fs, %s",
+      name, rowCount, rowCount / seconds, errors.sum(),
+      byteCount / (1024.0 * 1024), byteCount / seconds / (1024 * 1024), seconds,
+      percentiles(totalLatencies));
+  }
+
+  @Override
+  public void close() {
+    if (timer != null) {
+      timer.shutdownNow();
+      System.out.println(summary());
+    }
+  }
+
+  // prints what happened since the previous report
+  private synchronized void report() {
+    Histogram interval = latencies.getIntervalHistogram();
+    totalLatencies.add(interval);
+
+    long now = System.nanoTime();
+    long rowCount = rows.sum();
+    double seconds = Math.max(1, now - lastReportNanos) / 1_000_000_000.0;
+    System.out.println(String.format("%s: %d rows (%.0f rows/s), %d errors, %s",
+      name, rowCount, (rowCount - lastReportRows) / seconds, errors.sum(), percentiles(interval)));
+
+    lastReportNanos = now;
+    lastReportRows = rowCount;
+  }
+
+  private static String percentiles(Histogram histogram) {
+    return String.format("latency p50=%.0fus p99=%.0fus p99.9=%.0fus",
+      histogram.getValueAtPercentile(50) / 1000.0,
+      histogram.getValueAtPercentile(99) / 1000.0,
+      histogram.getValueAtPercentile(99.9) / 1000.0);
+  }
+}
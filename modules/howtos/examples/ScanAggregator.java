@@ -0,0 +1,539 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.codec.RawJsonTranscoder;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Computes simple statistics over a whole collection from range scans,
+ * without a query or analytics index: the number of documents per value of
+ * a field, sums of numeric fields, and the documents with the largest
+ * values of a field.
+ * <p>
+ * Documents are read as raw JSON and only the top-level fields involved
+ * are located in the bytes, with {@link JsonFieldScanner}; nothing else is
+ * decoded. Filters compare those bytes directly, so rows which don't match
+ * cost one pass over their bytes. Each partition accumulates into its own
+ * primitive arrays on one thread at a time, and the partitions are merged
+ * once at the end.
+ */
+public class ScanAggregator {
+
+  private final ReactiveCollection collection;
+  private final List<byte[]> filterFields = new ArrayList<>();
+  private final List<byte[]> filterValues = new ArrayList<>();
+  private String countByField;
+  private final List<String> sumFields = new ArrayList<>();
+  private String topField;
+  private int topSize;
+
+  public ScanAggregator(Collection collection) {
+    this.collection = collection.reactive();
+  }
+
+  /**
+   * Only includes documents where the top-level field has exactly this
+   * value, which may be a string, number or boolean. Strings are compared
+   * in their JSON encoding, so escapes written differently don't match.
+   */
+  public ScanAggregator where(String field, Object value) {
+    filterFields.add(JsonFieldScanner.name(field));
+    filterValues.add(jsonLiteral(value));
+    return this;
+  }
+
+  /**
+   * Counts documents by the value of the field.
+   */
+  public ScanAggregator countBy(String field) {
+    this.countByField = field;
+    return this;
+  }
+
+  public ScanAggregator sum(String field) {
+    sumFields.add(field);
+    return this;
+  }
+
+  /**
+   * Keeps the ids of the {@code size} documents with the largest values of
+   * the numeric field.
+   */
+  public ScanAggregator top(String field, int size) {
+    this.topField = field;
+    this.topSize = size;
+    return this;
+  }
+
+  /**
+   * Scans the ranges, at most {@code concurrency} at a time.
+   */
+  public Result run(List<ScanType> ranges, int concurrency) {
+    byte[][] names = fieldNames();
+    ScanOptions options = ScanOptions.scanOptions().transcoder(RawJsonTranscoder.INSTANCE);
+
+    Accumulator total = Flux.fromIterable(ranges)
+      .flatMap(range -> collection.scan(range, options)
+          // decode on the CPU workers, not the IO threads
+          .publishOn(Schedulers.parallel())
+          .reduceWith(() -> new Accumulator(names), (accumulator, result) -> {
+            accumulator.add(result);
+            return accumulator;
+          }),
+        concurrency)
+      .reduce(Accumulator::merge)
+      .blockOptional()
+      .orElseGet(() -> new Accumulator(names));
+
+    return total.result();
+  }
+
+  // filters first, then countBy, the sums and the top field
+  private byte[][] fieldNames() {
+    List<byte[]> names = new ArrayList<>(filterFields);
+    if (countByField != null) {
+      names.add(JsonFieldScanner.name(countByField));
+    }
+    for (String field : sumFields) {
+      names.add(JsonFieldScanner.name(field));
+    }
+    if (topField != null) {
+      names.add(JsonFieldScanner.name(topField));
+    }
+    return names.toArray(new byte[0][]);
+  }
+
+  private static byte[] jsonLiteral(Object value) {
+    if (value instanceof String) {
+      byte[] escaped = JsonStringEncoder.getInstance().quoteAsUTF8((String) value);
+      byte[] literal = new byte[escaped.length + 2];
+      literal[0] = '"';
+      System.arraycopy(escaped, 0, literal, 1, escaped.length);
+      literal[literal.length - 1] = '"';
+      return literal;
+    }
+    if (value instanceof Number || value instanceof Boolean) {
+      return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+    throw new IllegalArgumentException("Only strings, numbers and booleans can be filtered on: " + value);
+  }
+
+  /**
+   * Parses a JSON number without allocating in the common cases, or
+   * returns NaN if the value is not a number.
+   */
+  static double parseNumber(byte[] json, int start, int end) {
+    int pos = start;
+    boolean negative = pos < end && json[pos] == '-';
+    if (negative) {
+      pos++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int scale = -1;
+    for (; pos < end; pos++) {
+      byte c = json[pos];
+      if (c == '.' && scale < 0) {
+        scale = 0;
+      }
+      else if (c >= '0' && c <= '9' && digits < 15) {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (scale >= 0) {
+          scale++;
+        }
+      }
+      else if ((c >= '0' && c <= '9') || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        return Double.parseDouble(new String(json, start, end - start, StandardCharsets.US_ASCII));
+      }
+      else {
+        return Double.NaN;
+      }
+    }
+    if (digits == 0) {
+      return Double.NaN;
+    }
+    double value = scale > 0 ? mantissa / Math.pow(10, scale) : mantissa;
+    return negative ? -value : value;
+  }
+
+  /**
+   * The statistics of one partition, or of several once merged.
+   */
+  private final class Accumulator {
+    private final byte[][] fieldNames;
+    private final long[] ranges;
+    private long scanned;
+    private long matched;
+    private final ValueCounter counts = new ValueCounter();
+    private final double[] sums = new double[sumFields.size()];
+    private final long[] sumCounts = new long[sumFields.size()];
+    private final TopValues top = new TopValues(topSize);
+
+    Accumulator(byte[][] fieldNames) {
+      this.fieldNames = fieldNames;
+      this.ranges = new long[fieldNames.length];
+    }
+
+    void add(ScanResult result) {
+      scanned++;
+      byte[] json = result.contentAs(byte[].class);
+      JsonFieldScanner.scan(json, 0, json.length, fieldNames, ranges);
+
+      int field = 0;
+      for (; field < filterFields.size(); field++) {
+        if (!equalsValue(json, ranges[field], filterValues.get(field))) {
+          return;
+        }
+      }
+      matched++;
+
+      if (countByField != null) {
+        long range = ranges[field++];
+        if (range != JsonFieldScanner.MISSING) {
+          counts.increment(json, JsonFieldScanner.start(range), JsonFieldScanner.end(range));
+        }
+      }
+      for (int i = 0; i < sums.length; i++) {
+        long range = ranges[field++];
+        if (range != JsonFieldScanner.MISSING) {
+          double value = parseNumber(json, JsonFieldScanner.start(range), JsonFieldScanner.end(range));
+          if (!Double.isNaN(value)) {
+            sums[i] += value;
+            sumCounts[i]++;
+          }
+        }
+      }
+      if (topField != null) {
+        long range = ranges[field];
+        if (range != JsonFieldScanner.MISSING) {
+          double value = parseNumber(json, JsonFieldScanner.start(range), JsonFieldScanner.end(range));
+          if (!Double.isNaN(value)) {
+            top.offer(value, result.id());
+          }
+        }
+      }
+    }
+
+    Accumulator merge(Accumulator other) {
+      scanned += other.scanned;
+      matched += other.matched;
+      counts.addAll(other.counts);
+      for (int i = 0; i < sums.length; i++) {
+        sums[i] += other.sums[i];
+        sumCounts[i] += other.sumCounts[i];
+      }
+      top.addAll(other.top);
+      return this;
+    }
+
+    Result result() {
+      Map<String, Double> sumsByField = new LinkedHashMap<>();
+      Map<String, Long> valuesByField = new LinkedHashMap<>();
+      for (int i = 0; i < sums.length; i++) {
+        sumsByField.put(sumFields.get(i), sums[i]);
+        valuesByField.put(sumFields.get(i), sumCounts[i]);
+      }
+      return new Result(scanned, matched, counts.toMap(), sumsByField, valuesByField, top.toMap());
+    }
+
+    private boolean equalsValue(byte[] json, long range, byte[] expected) {
+      if (range == JsonFieldScanner.MISSING) {
+        return false;
+      }
+      int start = JsonFieldScanner.start(range);
+      int end = JsonFieldScanner.end(range);
+      return Arrays.equals(json, start, end, expected, 0, expected.length);
+    }
+  }
+
+  /**
+   * Counts by raw JSON value in an open-addressing table, copying a value's
+   * bytes only the first time it is seen.
+   */
+  static final class ValueCounter {
+    private byte[][] keys = new byte[64][];
+    private long[] counts = new long[64];
+    private int[] hashes = new int[64];
+    private int size;
+
+    void increment(byte[] json, int start, int end) {
+      add(json, start, end, 1);
+    }
+
+    void add(byte[] json, int start, int end, long count) {
+      int hash = hash(json, start, end);
+      int mask = keys.length - 1;
+      int slot = hash & mask;
+      while (keys[slot] != null) {
+        if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, json, start, end)) {
+          counts[slot] += count;
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      keys[slot] = Arrays.copyOfRange(json, start, end);
+      hashes[slot] = hash;
+      counts[slot] = count;
+      if (++size * 2 > keys.length) {
+        grow();
+      }
+    }
+
+    void addAll(ValueCounter other) {
+      for (int i = 0; i < other.keys.length; i++) {
+        byte[] key = other.keys[i];
+        if (key != null) {
+          add(key, 0, key.length, other.counts[i]);
+        }
+      }
+    }
+
+    // decoded once at the end, largest counts first
+    Map<String, Long> toMap() {
+      List<Integer> slots = new ArrayList<>(size);
+      for (int i = 0; i < keys.length; i++) {
+        if (keys[i] != null) {
+          slots.add(i);
+        }
+      }
+      slots.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+      Map<String, Long> map = new LinkedHashMap<>();
+      for (int slot : slots) {
+        byte[] key = keys[slot];
+        map.put(JsonFieldScanner.valueAsString(key, key.length), counts[slot]);
+      }
+      return map;
+    }
+
+    private void grow() {
+      byte[][] oldKeys = keys;
+      long[] oldCounts = counts;
+      int[] oldHashes = hashes;
+      keys = new byte[oldKeys.length * 2][];
+      counts = new long[oldKeys.length * 2];
+      hashes = new int[oldKeys.length * 2];
+      int mask = keys.length - 1;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldKeys[i] != null) {
+          int slot = oldHashes[i] & mask;
+          while (keys[slot] != null) {
+            slot = (slot + 1) & mask;
+          }
+          keys[slot] = oldKeys[i];
+          counts[slot] = oldCounts[i];
+          hashes[slot] = oldHashes[i];
+        }
+      }
+    }
+
+    private static int hash(byte[] json, int start, int end) {
+      int hash = 0x811c9dc5;
+      for (int i = start; i < end; i++) {
+        hash = (hash ^ json[i]) * 0x01000193;
+      }
+      // spread the high bits, as the table only looks at the low ones
+      return hash ^ (hash >>> 16);
+    }
+  }
+
+  /**
+   * The largest values seen so far, as a min-heap over primitive arrays.
+   */
+  static final class TopValues {
+    private final double[] values;
+    private final String[] ids;
+    private int size;
+
+    TopValues(int capacity) {
+      values = new double[capacity];
+      ids = new String[capacity];
+    }
+
+    void offer(double value, String id) {
+      if (size < values.length) {
+        values[size] = value;
+        ids[size] = id;
+        siftUp(size++);
+      }
+      else if (size > 0 && value > values[0]) {
+        values[0] = value;
+        ids[0] = id;
+        siftDown(0);
+      }
+    }
+
+    void addAll(TopValues other) {
+      for (int i = 0; i < other.size; i++) {
+        offer(other.values[i], other.ids[i]);
+      }
+    }
+
+    // largest first
+    Map<String, Double> toMap() {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Double.compare(values[b], values[a]));
+      Map<String, Double> map = new LinkedHashMap<>();
+      for (int i : order) {
+        map.put(ids[i], values[i]);
+      }
+      return map;
+    }
+
+    private void siftUp(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (values[parent] <= values[i]) {
+          return;
+        }
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void siftDown(int i) {
+      while (true) {
+        int smallest = i;
+        int left = 2 * i + 1;
+        int right = left + 1;
+        if (left < size && values[left] < values[smallest]) {
+          smallest = left;
+        }
+        if (right < size && values[right] < values[smallest]) {
+          smallest = right;
+        }
+        if (smallest == i) {
+          return;
+        }
+        swap(i, smallest);
+        i = smallest;
+      }
+    }
+
+    private void swap(int a, int b) {
+      double value = values[a];
+      values[a] = values[b];
+      values[b] = value;
+      String id = ids[a];
+      ids[a] = ids[b];
+      ids[b] = id;
+    }
+  }
+
+  public static class Result {
+    private final long scanned;
+    private final long matched;
+    private final Map<String, Long> counts;
+    private final Map<String, Double> sums;
+    private final Map<String, Long> summed;
+    private final Map<String, Double> top;
+
+    Result(long scanned, long matched, Map<String, Long> counts, Map<String, Double> sums,
+           Map<String, Long> summed, Map<String, Double> top) {
+      this.scanned = scanned;
+      this.matched = matched;
+      this.counts = counts;
+      this.sums = sums;
+      this.summed = summed;
+      this.top = top;
+    }
+
+    public long scanned() {
+      return scanned;
+    }
+
+    public long matched() {
+      return matched;
+    }
+
+    /**
+     * Documents per value of the countBy field, most frequent first.
+     */
+    public Map<String, Long> counts() {
+      return counts;
+    }
+
+    public double sum(String field) {
+      return sums.getOrDefault(field, 0.0);
+    }
+
+    public double average(String field) {
+      long count = summed.getOrDefault(field, 0L);
+      return count == 0 ? Double.NaN : sum(field) / count;
+    }
+
+    /**
+     * Document ids with the largest values of the top field, largest first.
+     */
+    public Map<String, Double> top() {
+      return top;
+    }
+
+    @Override
+    public String toString() {
+      return "Result{scanned=" + scanned + ", matched=" + matched + ", counts=" + counts
+        + ", sums=" + sums + ", top=" + top + "}";
+    }
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("route");
+
+    // tag::scan-aggregate[]
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    // direct routes: how many per airline, their total and average
+    // distance, and the five longest
+    Result result = new ScanAggregator(collection)
+      .where("stops", 0)
+      .countBy("airline")
+      .sum("distance")
+      .top("distance", 5)
+      .run(ScanPartitions.byFirstCharacter(Math.min(64, 4 * cores)), cores);
+
+    System.out.println(result.matched() + " of " + result.scanned() + " routes are direct");
+    System.out.println("Average distance: " + result.average("distance"));
+    System.out.println("Longest: " + result.top());
+    result.counts().entrySet().stream().limit(5)
+      .forEach(entry -> System.out.println(entry.getKey() + ": " + entry.getValue()));
+    // end::scan-aggregate[]
+
+    cluster.disconnect();
+  }
+}
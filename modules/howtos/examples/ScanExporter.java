@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.codec.RawBinaryTranscoder;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanType;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Exports a whole collection to JSONL files, one per key range, running
+ * the range scans concurrently.
+ * <p>
+ * Each line is {@code {"id":"...","content":{...}}}. The content is
+ * fetched with the {@link RawBinaryTranscoder} and written as it came from
+ * the server, without decoding it. A document which is not a JSON object or
+ * array (a binary document, a string, a counter) is written Base64 encoded
+ * as {@code {"id":"...","base64":"..."}} instead, and one which cannot be
+ * read at all is skipped; both are counted, so one odd document does not
+ * end the export. Every partition writes its own file through a large
+ * buffer, optionally compressed, on a worker thread rather than on the
+ * SDK's IO threads.
+ */
+public class ScanExporter {
+
+  public enum Compression {
+    NONE(""), GZIP(".gz"), ZSTD(".zst");
+
+    private final String suffix;
+
+    Compression(String suffix) {
+      this.suffix = suffix;
+    }
+  }
+
+  static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+  private static final byte[] ID_FIELD = "{\"id\":\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CONTENT_FIELD = "\",\"content\":".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] BASE64_FIELD = "\",\"base64\":\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] LINE_END = "}\n".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] QUOTED_LINE_END = "\"}\n".getBytes(StandardCharsets.UTF_8);
+
+  private final ReactiveCollection collection;
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder encoded = new LongAdder();
+  private final LongAdder skipped = new LongAdder();
+
+  public ScanExporter(Collection collection) {
+    this.collection = collection.reactive();
+  }
+
+  /**
+   * Scans the partitions, at most {@code concurrency} at a time, writing
+   * each to {@code part-NNNN.jsonl} (plus the compression suffix) in the
+   * target directory.
+   */
+  public Stats export(List<ScanType> partitions, Path directory, Compression compression, int concurrency)
+      throws IOException {
+    Files.createDirectories(directory);
+    rows.reset();
+    encoded.reset();
+    skipped.reset();
+    long start = System.nanoTime();
+
+    List<Path> files = Flux.range(0, partitions.size())
+      .flatMap(i -> exportPartition(partitions.get(i),
+          directory.resolve(String.format("part-%04d.jsonl%s", i, compression.suffix)), compression),
+        concurrency)
+      .collectList()
+      .block();
+
+    long bytes = 0;
+    for (Path file : files) {
+      bytes += Files.size(file);
+    }
+    return new Stats(rows.sum(), encoded.sum(), skipped.sum(), bytes, files.size(), System.nanoTime() - start);
+  }
+
+  private Mono<Path> exportPartition(ScanType partition, Path file, Compression compression) {
+    return Flux.using(
+        () -> open(file, compression),
+        out -> collection
+          .scan(partition, ScanOptions.scanOptions().transcoder(RawBinaryTranscoder.INSTANCE))
+          // hand the rows over to a worker, the file writes block
+          .publishOn(Schedulers.boundedElastic())
+          .doOnNext(result -> write(out, result)),
+        out -> {
+          try { out.close(); }
+          catch (IOException e) { throw Exceptions.propagate(e); }
+        })
+      .then(Mono.just(file));
+  }
+
+  private void write(OutputStream out, ScanResult result) {
+    byte[] content;
+    try {
+      content = result.contentAs(byte[].class);
+    }
+    catch (RuntimeException e) {
+      skipped.increment();
+      return;
+    }
+    try {
+      out.write(ID_FIELD);
+      out.write(JsonStringEncoder.getInstance().quoteAsUTF8(result.id()));
+      if (isJsonContainer(content)) {
+        out.write(CONTENT_FIELD);
+        out.write(content);
+        out.write(LINE_END);
+      }
+      else {
+        out.write(BASE64_FIELD);
+        out.write(Base64.getEncoder().encode(content));
+        out.write(QUOTED_LINE_END);
+        encoded.increment();
+      }
+      rows.increment();
+    }
+    catch (IOException e) {
+      throw Exceptions.propagate(e);
+    }
+  }
+
+  // a cheap check that the bytes can go into the line as they are: they start
+  // and end like a JSON object or array, which other content practically never does
+  static boolean isJsonContainer(byte[] content) {
+    int first = 0;
+    while (first < content.length && isWhitespace(content[first])) {
+      first++;
+    }
+    int last = content.length - 1;
+    while (last > first && isWhitespace(content[last])) {
+      last--;
+    }
+    return last > first
+      && ((content[first] == '{' && content[last] == '}') || (content[first] == '[' && content[last] == ']'));
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  private static OutputStream open(Path file, Compression compression) throws IOException {
+    FileChannel channel = FileChannel.open(file,
+      StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE);
+    switch (compression) {
+      // the compressors get the rows, and hand their output to the file buffer in large blocks
+      case GZIP: return new BufferedOutputStream(new GZIPOutputStream(out, WRITE_BUFFER_SIZE), WRITE_BUFFER_SIZE);
+      case ZSTD: return new BufferedOutputStream(new ZstdOutputStream(out), WRITE_BUFFER_SIZE);
+      default: return out;
+    }
+  }
+
+  public static class Stats {
+    private final long rows;
+    private final long encoded;
+    private final long skipped;
+    private final long bytes;
+    private final int files;
+    private final long nanos;
+
+    Stats(long rows, long encoded, long skipped, long bytes, int files, long nanos) {
+      this.rows = rows;
+      this.encoded = encoded;
+      this.skipped = skipped;
+      this.bytes = bytes;
+      this.files = files;
+      this.nanos = nanos;
+    }
+
+    public long rows() {
+      return rows;
+    }
+
+    /**
+     * The number of exported documents which were not JSON, and were written Base64 encoded.
+     */
+    public long encoded() {
+      return encoded;
+    }
+
+    /**
+     * The number of documents which could not be read, and are missing from the export.
+     */
+    public long skipped() {
+      return skipped;
+    }
+
+    public long bytes() {
+      return bytes;
+    }
+
+    public int files() {
+      return files;
+    }
+
+    public Duration elapsed() {
+      return Duration.ofNanos(nanos);
+    }
+
+    @Override
+    public String toString() {
+      double seconds = Math.max(1, nanos) / 1_000_000_000.0;
+      return String.format("%d rows (%.0f rows/s, %d Base64 encoded, %d skipped), %.2f MB in %d files (%.2f MB/s) in %.1fs",
+        rows, rows / seconds, encoded, skipped, bytes / (1024.0 * 1024), files, bytes / seconds / (1024 * 1024),
+        seconds);
+    }
+  }
+
+  public static void main(String... args) throws Exception {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::export[]
+    ScanExporter exporter = new ScanExporter(collection);
+    int cores = Runtime.getRuntime().availableProcessors();
+
+    Stats stats = exporter.export(
+      ScanPartitions.byFirstCharacter(Math.min(64, 4 * cores)),
+      Files.createTempDirectory("airline-export"),
+      Compression.GZIP,
+      cores);
+
+    System.out.println("Exported " + stats);
+    // end::export[]
+
+    cluster.disconnect();
+  }
+}
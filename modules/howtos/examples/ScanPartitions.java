@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.ScanOptions;
+import com.couchbase.client.java.kv.ScanResult;
+import com.couchbase.client.java.kv.ScanTerm;
+import com.couchbase.client.java.kv.ScanType;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Splits the key space of a collection into range scans which do not
+ * overlap and together cover every key, so they can run concurrently.
+ */
+public final class ScanPartitions {
+
+  // printable ASCII, where nearly all document keys start
+  static final char FIRST = '!';
+  static final char LAST = '~';
+
+  /**
+   * The order the server keeps keys in: their UTF-8 bytes, unsigned. This
+   * is the same as {@code String.compareTo} for ASCII keys only.
+   */
+  public static final Comparator<String> KEY_ORDER = (a, b) -> Arrays.compareUnsigned(
+    a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+
+  private ScanPartitions() { }
+
+  /**
+   * Samples the collection's keys and splits them into ranges holding
+   * roughly the same number of documents each. Falls back to a single range
+   * when the sample finds too few keys.
+   *
+   * @param sampleSize the number of keys to sample; a few hundred per
+   *   partition gives reasonably even ranges.
+   */
+  public static Mono<List<ScanType>> sampled(ReactiveCollection collection, int partitions, long sampleSize) {
+    return collection
+      .scan(ScanType.samplingScan(sampleSize), ScanOptions.scanOptions().idsOnly(true))
+      .map(ScanResult::id)
+      .collectSortedList(KEY_ORDER)
+      .map(ids -> between(quantiles(ids, partitions)));
+  }
+
+  /**
+   * Picks up to {@code partitions - 1} distinct boundaries from sorted keys,
+   * so each range gets about the same number of them.
+   */
+  static List<String> quantiles(List<String> sortedKeys, int partitions) {
+    List<String> boundaries = new ArrayList<>();
+    for (int i = 1; i < partitions; i++) {
+      int index = (int) ((long) i * sortedKeys.size() / partitions);
+      if (index == 0 || index >= sortedKeys.size()) {
+        continue;
+      }
+      String boundary = sortedKeys.get(index);
+      if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary)) {
+        boundaries.add(boundary);
+      }
+    }
+    return boundaries;
+  }
+
+  /**
+   * Splits on the first character of the key, spreading the printable ASCII
+   * characters evenly over the partitions. The first and last partitions
+   * are open ended, so keys outside that range are still covered.
+   *
+   * @param partitions the number of ranges, at most one per printable character.
+   */
+  public static List<ScanType> byFirstCharacter(int partitions) {
+    int span = LAST - FIRST + 1;
+    if (partitions < 1 || partitions > span) {
+      throw new IllegalArgumentException("partitions must be between 1 and " + span);
+    }
+
+    List<String> boundaries = new ArrayList<>();
+    for (int i = 1; i < partitions; i++) {
+      boundaries.add(String.valueOf((char) (FIRST + i * span / partitions)));
+    }
+    return between(boundaries);
+  }
+
+  /**
+   * Builds the ranges between consecutive boundaries, which must be sorted
+   * and distinct. Each range includes its lower boundary and excludes its
+   * upper one; n boundaries give n + 1 ranges.
+   */
+  public static List<ScanType> between(List<String> boundaries) {
+    List<ScanType> ranges = new ArrayList<>(boundaries.size() + 1);
+    ScanTerm from = ScanTerm.minimum();
+    for (String boundary : boundaries) {
+      ranges.add(ScanType.rangeScan(from, ScanTerm.exclusive(boundary)));
+      from = ScanTerm.inclusive(boundary);
+    }
+    ranges.add(ScanType.rangeScan(from, ScanTerm.maximum()));
+    return ranges;
+  }
+
+  /**
+   * One prefix scan per prefix, for key spaces which are known to be
+   * split by type, like {@code airline_} and {@code airport_}.
+   */
+  public static List<ScanType> byPrefix(String... prefixes) {
+    List<ScanType> scans = new ArrayList<>(prefixes.length);
+    for (String prefix : prefixes) {
+      scans.add(ScanType.prefixScan(prefix));
+    }
+    return scans;
+  }
+}
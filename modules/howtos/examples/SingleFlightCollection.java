@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 Couchbase, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.couchbase.client.java.Bucket;
+import com.couchbase.client.java.Cluster;
+import com.couchbase.client.java.Collection;
+import com.couchbase.client.java.ReactiveCollection;
+import com.couchbase.client.java.kv.GetResult;
+import com.couchbase.client.java.kv.LookupInResult;
+import com.couchbase.client.java.kv.LookupInSpec;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Shares one in-flight read between all callers asking for the same key at
+ * the same time, so a burst of reads of a hot document costs one request.
+ * <p>
+ * Only concurrent callers share a result: once the request completes the
+ * key is released, and the next read goes to the server again. Nothing is
+ * cached. {@code lookupIn} calls are shared when the id and the spec list
+ * are the same; the list is compared by identity, so keep it in a
+ * constant.
+ */
+public class SingleFlightCollection {
+
+  private final ReactiveCollection collection;
+  private final ConcurrentMap<Object, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder shared = new LongAdder();
+
+  public SingleFlightCollection(Collection collection) {
+    this.collection = collection.reactive();
+  }
+
+  public Mono<GetResult> get(String id) {
+    return coalesce(id, () -> collection.get(id));
+  }
+
+  public Mono<LookupInResult> lookupIn(String id, List<LookupInSpec> specs) {
+    return coalesce(new LookupInKey(id, specs), () -> collection.lookupIn(id, specs));
+  }
+
+  /**
+   * The number of reads asked for.
+   */
+  public long requests() {
+    return requests.sum();
+  }
+
+  /**
+   * The number of reads which joined a request already in flight.
+   */
+  public long shared() {
+    return shared.sum();
+  }
+
+  public double hitRate() {
+    long total = requests();
+    return total == 0 ? 0 : (double) shared() / total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SingleFlightCollection{requests=%d, shared=%d, hitRate=%.1f%%, inFlight=%d}",
+      requests(), shared(), 100 * hitRate(), inFlight.size());
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> Mono<T> coalesce(Object key, Supplier<Mono<T>> read) {
+    return Mono.defer(() -> {
+      requests.increment();
+
+      CompletableFuture<T> created = new CompletableFuture<>();
+      CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+      if (existing != null) {
+        shared.increment();
+        return join(existing);
+      }
+
+      // release the key before completing, so callers arriving after the
+      // result is out start a fresh read instead of seeing this one; defer
+      // turns a read which throws instead of returning a Mono into an error,
+      // which releases the key like any other failure
+      Mono.defer(read).subscribe(
+        value -> {
+          inFlight.remove(key, created);
+          created.complete(value);
+        },
+        error -> {
+          inFlight.remove(key, created);
+          created.completeExceptionally(error);
+        },
+        () -> {
+          inFlight.remove(key, created);
+          created.complete(null);
+        });
+      return join(created);
+    });
+  }
+
+  // each caller waits on its own dependent future, so one caller
+  // cancelling does not cancel the read for everyone else
+  private static <T> Mono<T> join(CompletableFuture<T> read) {
+    return Mono.fromFuture(read.thenApply(Function.identity()));
+  }
+
+  private static final class LookupInKey {
+    private final String id;
+    private final List<LookupInSpec> specs;
+
+    LookupInKey(String id, List<LookupInSpec> specs) {
+      this.id = id;
+      this.specs = specs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof LookupInKey)) {
+        return false;
+      }
+      LookupInKey other = (LookupInKey) o;
+      return id.equals(other.id) && specs == other.specs;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * id.hashCode() + System.identityHashCode(specs);
+    }
+  }
+
+  public static void main(String... args) {
+    Cluster cluster = Cluster.connect("localhost", "Administrator", "password");
+    Bucket bucket = cluster.bucket("travel-sample");
+    Collection collection = bucket.scope("inventory").collection("airline");
+
+    // tag::single-flight[]
+    SingleFlightCollection reads = new SingleFlightCollection(collection);
+
+    // 10,000 concurrent reads of the same document
+    long found = Flux.range(0, 10_000)
+      .flatMap(i -> reads.get("airline_10"), 1_000)
+      .count()
+      .block();
+
+    System.out.println("Read " + found + " times: " + reads);
+    // end::single-flight[]
+
+    // a read which fails before returning a Mono must still release its key
+    reads.coalesce("broken", () -> { throw new IllegalStateException("no connection"); })
+      .onErrorResume(e -> Mono.empty())
+      .block();
+    System.out.println("Keys in flight after a failed read: " + reads.inFlight.size());
+
+    cluster.disconnect();
+  }
+}
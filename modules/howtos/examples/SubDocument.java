@@ -32,6 +32,8 @@ import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
 
 import com.couchbase.client.core.error.CasMismatchException;
@@ -382,31 +384,23 @@ public class SubDocument {
 
   static void concurrent() {
     // tag::concurrent[]
-    Thread thread1 = new Thread() {
-      public void run() {
+    ExecutorService executor = VirtualThreads.newExecutor();
+
+    Future<?> append1 = executor.submit(() ->
         collection.mutateIn("hotel_1501",
-            List.of(arrayAppend("foo", List.of(99))));
-      }
-    };
+            List.of(arrayAppend("foo", List.of(99)))));
 
-    Thread thread2 = new Thread() {
-      public void run() {
+    Future<?> append2 = executor.submit(() ->
         collection.mutateIn("hotel_1501",
-            List.of(arrayAppend("foo", List.of(101))));
-      }
-    };
-    thread1.start();
-    thread2.start();
+            List.of(arrayAppend("foo", List.of(101)))));
     // end::concurrent[]
     try {
-      thread1.join();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    }
-    try {
-      thread2.join();
-    } catch (InterruptedException e) {
+      append1.get();
+      append2.get();
+    } catch (InterruptedException | ExecutionException e) {
       e.printStackTrace();
+    } finally {
+      executor.shutdown();
     }
     GetResult doc = collection.get("hotel_1501");
     System.out.println("concurrent: hotel_1501 " + doc);
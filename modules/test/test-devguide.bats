@@ -110,8 +110,25 @@ load 'test_helper'
     assert_output --partial "GetResult{content={\"foo\":\"bar\"}"
 }
 
+@test "[devguide] - ShardedCounterExample.java" {
+    runExample ShardedCounterExample
+    assert_success
+    assert_output --partial "Sharded counter is 80000, expected 80000"
+}
+
 @test "[devguide] - Updating.java" {
     runExample Updating
     assert_success
     assert_output --partial "GetResult{content={\"mutation\":true,\"topic\":\"storing\",\"update\":\"something\"}"
 }
+
+@test "[devguide] - VirtualThreadBenchmark.java" {
+    runExample VirtualThreadBenchmark
+    assert_success
+}
+
+@test "[devguide] - WriteBehind.java" {
+    runExample WriteBehind
+    assert_success
+    assert_output --partial "Counter is 80000, expected 80000"
+}
@@ -37,6 +37,12 @@ load 'test_helper'
     assert_success
 }
 
+@test "[howtos] - DocumentProfiler.java" {
+    runExample DocumentProfiler
+    assert_success
+    assert_output --partial "Measured a 102 byte string field as 102 bytes"
+}
+
 @test "[howtos] - EncryptingUsingSDK.java" {
     skip "Example requires a keystore, needs further investigation."
 
@@ -56,6 +62,11 @@ load 'test_helper'
     assert_success
 }
 
+@test "[howtos] - HedgedReads.java" {
+    runExample HedgedReads
+    assert_success
+}
+
 @test "[howtos] - Import.java" {
     runExample Import
     assert_success
@@ -66,6 +77,12 @@ load 'test_helper'
     assert_success
 }
 
+@test "[howtos] - KeyCoalescer.java" {
+    runExample KeyCoalescer
+    assert_success
+    assert_output --partial "Slow consumer received"
+}
+
 @test "[howtos] - KvOperations.java" {
     runExample KvOperations
     assert_success
@@ -90,11 +107,41 @@ load 'test_helper'
     assert_success
 }
 
+@test "[howtos] - NearCache.java" {
+    runExample NearCache
+    assert_success
+}
+
+@test "[howtos] - OffHeapDocumentCache.java" {
+    runExample OffHeapDocumentCache
+    assert_success
+}
+
+@test "[howtos] - PartitionedScan.java" {
+    runExample PartitionedScan
+    assert_success
+}
+
+@test "[howtos] - PrefixBulkOps.java" {
+    runExample PrefixBulkOps
+    assert_success
+}
+
 @test "[howtos] - Queries.java" {
     runExample Queries
     assert_success
 }
 
+@test "[howtos] - ScanAggregator.java" {
+    runExample ScanAggregator
+    assert_success
+}
+
+@test "[howtos] - ScanExporter.java" {
+    runExample ScanExporter
+    assert_success
+}
+
 @test "[howtos] - Search.java" {
     runExample Search
     assert_success
@@ -124,6 +171,12 @@ load 'test_helper'
     assert_success
 }
 
+@test "[howtos] - SingleFlightCollection.java" {
+    runExample SingleFlightCollection
+    assert_success
+    assert_output --partial "Keys in flight after a failed read: 0"
+}
+
 @test "[howtos] - SubDocument.java" {
     runExample SubDocument
     assert_success